@@ -0,0 +1,167 @@
+// Benchmarks BankersAllocator under contention: worker threads each acquire their claims one unit at a time
+// and release them, and the throughput, the share of grants made without the exclusive lock and the refusals
+// are printed for each thread count, margin and mode.
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AllocatorBenchmark {
+
+    private static final int NUM_OF_RESOURCE_TYPES = 4;
+    private static final int CLAIM = 4;
+
+    // a wide margin leaves units for every claim, so every grant can skip the safety check; a tight margin
+    // declares twice as much as there is, so grants take the exclusive lock and run the safety check
+    private static final String WIDE = "wide";
+    private static final String[] MARGINS = {WIDE, "tight"};
+    private static final String BANKER = "banker";
+    private static final String[] MODES = {BANKER, "optimistic"};
+
+    private static int warmupIterations = 2;
+    private static int measurementIterations = 5;
+    private static long iterationMillis = 500;
+    private static int[] threadCounts = {1, 2, 4, 8, 16};
+    private static String[] margins = MARGINS;
+    private static String[] modes = MODES;
+
+    // run the benchmarks, optionally narrowed by arguments such as
+    // threads=1,8 margin=tight mode=banker warmup=1 iterations=10 millis=1000
+    public static void main(String[] args) throws InterruptedException {
+        for (String arg : args) {
+            String[] nameAndValue = arg.split("=", 2);
+            switch (nameAndValue[0]) {
+                case "threads":
+                    threadCounts = Arrays.stream(nameAndValue[1].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "margin":
+                    margins = nameAndValue[1].split(",");
+                    break;
+                case "mode":
+                    modes = nameAndValue[1].split(",");
+                    break;
+                case "warmup":
+                    warmupIterations = Integer.parseInt(nameAndValue[1]);
+                    break;
+                case "iterations":
+                    measurementIterations = Integer.parseInt(nameAndValue[1]);
+                    break;
+                case "millis":
+                    iterationMillis = Long.parseLong(nameAndValue[1]);
+                    break;
+                default:
+                    System.out.println("Unknown argument '" + arg + "'");
+                    return;
+            }
+        }
+
+        String format = "%-10s %-6s %7s %14s %11s %9s %10s%n";
+        System.out.printf(format, "mode", "margin", "threads", "ops/s", "error", "shared", "refusals");
+
+        for (String mode : modes) {
+            for (String margin : margins) {
+                for (int threads : threadCounts) {
+                    Result r = benchmark(mode.equals(BANKER), margin.equals(WIDE), threads);
+                    System.out.printf(format, mode, margin, threads, String.format("%.0f", r.opsPerSecond),
+                            String.format("+-%.0f", r.error), String.format("%.1f%%", r.sharedPercent), r.refusals);
+                }
+            }
+        }
+    }
+
+    private static class Result {
+        double opsPerSecond;
+        double error;
+        double sharedPercent;
+        long refusals;
+    }
+
+    private static Result benchmark(boolean avoidingDeadlock, boolean wideMargin, int threads) throws InterruptedException {
+        List<Double> opsPerSecond = new ArrayList<>();
+        Result result = new Result();
+
+        for (int i = 0; i < warmupIterations + measurementIterations; i++) {
+            int unitsPerType = wideMargin ? threads * CLAIM : Math.max(CLAIM, threads * CLAIM / 2);
+            int[] units = new int[NUM_OF_RESOURCE_TYPES];
+            Arrays.fill(units, unitsPerType);
+            BankersAllocator allocator = new BankersAllocator(units, avoidingDeadlock);
+
+            LongAdder operations = new LongAdder();
+            CountDownLatch start = new CountDownLatch(1);
+            long[] deadline = new long[1];
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long seed = t;
+                Thread worker = new Thread(() -> work(allocator, seed, start, deadline, operations));
+                workers.add(worker);
+                worker.start();
+            }
+
+            deadline[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(iterationMillis);
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - begin) / 1e9;
+
+            if (i >= warmupIterations) {
+                opsPerSecond.add(operations.sum() / seconds);
+                long grants = allocator.getSharedGrants() + allocator.getExclusiveGrants();
+                result.sharedPercent += 100.0 * allocator.getSharedGrants() / Math.max(1, grants) / measurementIterations;
+                result.refusals += allocator.getRefusals();
+            }
+        }
+
+        result.opsPerSecond = opsPerSecond.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        double variance = opsPerSecond.stream().mapToDouble(v -> (v - result.opsPerSecond) * (v - result.opsPerSecond)).sum()
+                / Math.max(1, opsPerSecond.size() - 1);
+        result.error = Math.sqrt(variance);
+        return result;
+    }
+
+    // declare a claim, then until the deadline acquire the claim one unit of a random type at a time and
+    // release it all again, counting each acquire and release; a worker that times out gives back what it holds
+    private static void work(BankersAllocator allocator, long seed, CountDownLatch start, long[] deadline, LongAdder operations) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] claim = new int[NUM_OF_RESOURCE_TYPES];
+        Arrays.fill(claim, CLAIM);
+        BankersAllocator.Client client = allocator.declareClaim(claim);
+
+        try {
+            start.await();
+            long count = 0;
+            int[] remaining = new int[NUM_OF_RESOURCE_TYPES];
+            while (System.nanoTime() < deadline[0]) {
+                System.arraycopy(claim, 0, remaining, 0, NUM_OF_RESOURCE_TYPES);
+                for (int left = NUM_OF_RESOURCE_TYPES * CLAIM; left > 0; left--) {
+                    int type = random.nextInt(NUM_OF_RESOURCE_TYPES);
+                    while (remaining[type] == 0) {
+                        type = (type + 1) % NUM_OF_RESOURCE_TYPES;
+                    }
+                    if (!allocator.acquire(client, type, 1, 10, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                    remaining[type]--;
+                    count++;
+                }
+                for (int type = 0; type < NUM_OF_RESOURCE_TYPES; type++) {
+                    int held = client.getHeld(type);
+                    if (held > 0) {
+                        allocator.release(client, type, held);
+                        count++;
+                    }
+                }
+            }
+            operations.add(count);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            allocator.retire(client);
+        }
+    }
+}
@@ -0,0 +1,499 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The BankersAllocator class shares pools of resource units between concurrent clients, avoiding deadlock
+ * with the banker's algorithm or, optimistically, granting any request there are units for
+ *
+ * Each client declares the most units of each type it will hold at once, then acquires and releases units
+ * of one type at a time, and retires when it is done, giving back whatever it still holds.
+ *
+ * The slack of a resource type is its number of units minus the claims of every live client on it. Granting
+ * or releasing units moves them between the available units and a client's holding and leaves the slack as it
+ * was, so only declaring and retiring clients change it. While every type's slack is at least zero every client
+ * could finish at once, so every request there are units for is safe and is granted under a shared lock by
+ * compare-and-set on the type's available count.
+ *
+ * Otherwise each safety check that passes also leaves a margin for each type: the fewest units of it that any
+ * client in the order it found had beyond its need when its turn came. Granting any clients up to that many
+ * units of the type in all keeps that order safe, and releases and retirements only widen it, so requests within
+ * the margin are granted under the shared lock too, by compare-and-set on the margin. Only the rest take the
+ * exclusive lock and run the safety check, which walks the clients in order of need of each type, in
+ * O(clients * types * log clients), with scratch arrays kept from one check to the next.
+ */
+public class BankersAllocator {
+
+    /**
+     * the distance between the available counts of two resource types, so that each sits on its own cache line
+     */
+    private static final int STRIDE = 16;
+
+    /**
+     * the resource types, their units, and the units of each that are not held
+     */
+    private final int numOfResourceTypes;
+    private final int[] units;
+    private final AtomicIntegerArray available;
+
+    /**
+     * whether requests are checked against claims and the safety check
+     */
+    private final boolean avoidingDeadlock;
+
+    /**
+     * shared by requests and releases, exclusive for declaring and retiring clients and for safety checks
+     */
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * the live clients, the slack of each resource type, and whether every slack is at least zero; only
+     * changed under the exclusive lock
+     */
+    private final List<Client> clients = new ArrayList<>();
+    private final long[] slack;
+    private volatile boolean everyClaimFits = true;
+
+    /**
+     * the units of each type that can still be granted without a safety check while some slack is below zero;
+     * set by the safety check, taken by shared grants, and cleared when a client declares a claim
+     */
+    private final AtomicIntegerArray margins;
+
+    /**
+     * scratch buffers reused by every safety check, only used under the exclusive lock: the work vector, the
+     * margins found, for each type the clients as need in the high half and index in the low half sorted by
+     * need with a cursor past those whose need fits, the number of types each client's need fits in, and the
+     * clients ready to finish
+     */
+    private final int[] work;
+    private final int[] foundMargins;
+    private long[][] needOrder;
+    private final int[] needOrderCursor;
+    private int[] satisfiedTypes;
+    private int[] readyClients;
+
+    /**
+     * what blocked acquires wait on: the number of times units came back, and the number of waiters
+     */
+    private final Object monitor = new Object();
+    private final AtomicLong numOfReturns = new AtomicLong();
+    private final AtomicInteger numOfWaiters = new AtomicInteger();
+
+    /**
+     * statistics: requests granted under the shared lock, under the exclusive lock, and refused
+     */
+    private final LongAdder sharedGrants = new LongAdder();
+    private final LongAdder exclusiveGrants = new LongAdder();
+    private final LongAdder refusals = new LongAdder();
+
+    /**
+     * The Client class is a handle on the claim and the holdings of one client of a BankersAllocator
+     */
+    public static final class Client {
+
+        private final int[] claim;
+        private final AtomicIntegerArray held;
+        private volatile boolean retired;
+
+        private Client(int[] claim) {
+            this.claim = claim;
+            this.held = new AtomicIntegerArray(claim.length);
+        }
+
+        /**
+         * get the units of a resource type the client declared it may hold
+         */
+        public int getClaim(int type) { return claim[type]; }
+
+        /**
+         * get the units of a resource type the client holds
+         */
+        public int getHeld(int type) { return held.get(type); }
+    }
+
+    /**
+     * constructs an allocator with a number of units of each resource type that avoids deadlock
+     */
+    public BankersAllocator(int[] units) {
+        this(units, true);
+    }
+
+    /**
+     * constructs an allocator with a number of units of each resource type that avoids deadlock with the
+     * banker's algorithm, or grants every request there are units for if not avoiding deadlock
+     */
+    public BankersAllocator(int[] units, boolean avoidingDeadlock) {
+        this.numOfResourceTypes = units.length;
+        this.units = units.clone();
+        this.avoidingDeadlock = avoidingDeadlock;
+
+        available = new AtomicIntegerArray(numOfResourceTypes * STRIDE);
+        margins = new AtomicIntegerArray(numOfResourceTypes * STRIDE);
+        slack = new long[numOfResourceTypes];
+        work = new int[numOfResourceTypes];
+        foundMargins = new int[numOfResourceTypes];
+        needOrder = new long[numOfResourceTypes][0];
+        needOrderCursor = new int[numOfResourceTypes];
+        satisfiedTypes = new int[0];
+        readyClients = new int[0];
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            if (units[type] < 0) {
+                throw new IllegalArgumentException("Resource type " + type + " has a negative number of units");
+            }
+            available.set(type * STRIDE, units[type]);
+            slack[type] = units[type];
+        }
+    }
+
+    /**
+     * add a client that may hold up to the given number of units of each resource type at once
+     *
+     * @throws IllegalArgumentException if a claim exceeds the units of its type
+     */
+    public Client declareClaim(int... claim) {
+        if (claim.length != numOfResourceTypes) {
+            throw new IllegalArgumentException("A claim needs " + numOfResourceTypes + " resource types, not " + claim.length);
+        }
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            if (claim[type] < 0 || (avoidingDeadlock && claim[type] > units[type])) {
+                throw new IllegalArgumentException("Claim for resource type " + type + " (" + claim[type]
+                        + ") exceeds number of units present (" + units[type] + ")");
+            }
+        }
+
+        Client client = new Client(claim.clone());
+        long stamp = lock.writeLock();
+        try {
+            clients.add(client);
+            updateSlack(client, -1);
+
+            // the new client has no place in the order the margins were found for
+            for (int type = 0; type < numOfResourceTypes; type++) {
+                margins.set(type * STRIDE, 0);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return client;
+    }
+
+    /**
+     * remove a client, giving back every unit it still holds
+     */
+    public void retire(Client client) {
+        long stamp = lock.writeLock();
+        try {
+            if (client.retired) {
+                return;
+            }
+            client.retired = true;
+            clients.remove(client);
+            updateSlack(client, 1);
+
+            for (int type = 0; type < numOfResourceTypes; type++) {
+                available.addAndGet(type * STRIDE, client.held.getAndSet(type, 0));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        signalReturn();
+    }
+
+    /**
+     * add or remove a client's claim to or from the slack of every type; the exclusive lock must be held
+     */
+    private void updateSlack(Client client, int sign) {
+        boolean fits = true;
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            slack[type] += sign * client.claim[type];
+            fits &= slack[type] >= 0;
+        }
+        everyClaimFits = fits;
+    }
+
+    /**
+     * grant a client units of a resource type if there are enough available and, when avoiding deadlock,
+     * the state would stay safe; return true if granted, false otherwise
+     *
+     * @throws IllegalArgumentException if, when avoiding deadlock, the client would hold more than its claim
+     * @throws IllegalStateException if the client has retired
+     */
+    public boolean tryAcquire(Client client, int type, int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Cannot acquire a negative quantity");
+        }
+
+        long stamp = lock.readLock();
+        try {
+            checkLive(client);
+            if (avoidingDeadlock) {
+                reserveWithinClaim(client, type, quantity);
+            } else {
+                client.held.addAndGet(type, quantity);
+            }
+
+            boolean withinMargin = avoidingDeadlock && !everyClaimFits && take(margins, type, quantity);
+            if (!avoidingDeadlock || everyClaimFits || withinMargin) {
+                if (take(available, type, quantity)) {
+                    sharedGrants.increment();
+                    return true;
+                }
+                if (withinMargin) {
+                    margins.addAndGet(type * STRIDE, quantity);
+                }
+                client.held.addAndGet(type, -quantity);
+                refusals.increment();
+                return false;
+            }
+
+            // the request needs a safety check
+            client.held.addAndGet(type, -quantity);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        stamp = lock.writeLock();
+        try {
+            checkLive(client);
+            reserveWithinClaim(client, type, quantity);
+            if (take(available, type, quantity)) {
+                if (everyClaimFits || safe()) {
+                    exclusiveGrants.increment();
+                    return true;
+                }
+                // the request is not safe so rollback
+                available.addAndGet(type * STRIDE, quantity);
+            }
+            client.held.addAndGet(type, -quantity);
+            refusals.increment();
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * grant a client units of a resource type, waiting until the request can be granted or the timeout
+     * passes; return true if granted, false if the timeout passed
+     *
+     * @throws IllegalArgumentException if, when avoiding deadlock, the client would hold more than its claim
+     * @throws IllegalStateException if the client has retired
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean acquire(Client client, int type, int quantity, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            // only units coming back can make a refused request grantable
+            long returns = numOfReturns.get();
+            if (tryAcquire(client, type, quantity)) {
+                return true;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+
+            synchronized (monitor) {
+                numOfWaiters.incrementAndGet();
+                try {
+                    if (numOfReturns.get() == returns) {
+                        TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                    }
+                } finally {
+                    numOfWaiters.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * give back units of a resource type a client holds
+     *
+     * @throws IllegalArgumentException if the client holds fewer units than the quantity
+     * @throws IllegalStateException if the client has retired
+     */
+    public void release(Client client, int type, int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Cannot release a negative quantity");
+        }
+
+        long stamp = lock.readLock();
+        try {
+            checkLive(client);
+            int held;
+            do {
+                held = client.held.get(type);
+                if (held < quantity) {
+                    throw new IllegalArgumentException("Release of resource type " + type + " (" + quantity
+                            + ") exceeds units held (" + held + ")");
+                }
+            } while (!client.held.compareAndSet(type, held, held - quantity));
+            available.addAndGet(type * STRIDE, quantity);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        signalReturn();
+    }
+
+    /**
+     * get the units of a resource type that are not held by any client
+     */
+    public int getAvailable(int type) { return available.get(type * STRIDE); }
+
+    /**
+     * get the number of requests granted without the exclusive lock
+     */
+    public long getSharedGrants() { return sharedGrants.sum(); }
+
+    /**
+     * get the number of requests granted under the exclusive lock
+     */
+    public long getExclusiveGrants() { return exclusiveGrants.sum(); }
+
+    /**
+     * get the number of requests refused
+     */
+    public long getRefusals() { return refusals.sum(); }
+
+    private static void checkLive(Client client) {
+        if (client.retired) {
+            throw new IllegalStateException("Client has retired");
+        }
+    }
+
+    /**
+     * add a quantity to a client's holding of a type unless that would exceed its claim
+     */
+    private static void reserveWithinClaim(Client client, int type, int quantity) {
+        int held;
+        do {
+            held = client.held.get(type);
+            if (held + quantity > client.claim[type]) {
+                throw new IllegalArgumentException("Request for resource type " + type + " (" + quantity
+                        + ") exceeds remaining claim (" + (client.claim[type] - held) + ")");
+            }
+        } while (!client.held.compareAndSet(type, held, held + quantity));
+    }
+
+    /**
+     * take a quantity of a type from the available units or the margins if there are enough; return true
+     * if taken
+     */
+    private static boolean take(AtomicIntegerArray counts, int type, int quantity) {
+        int index = type * STRIDE;
+        int units;
+        do {
+            units = counts.get(index);
+            if (units < quantity) {
+                return false;
+            }
+        } while (!counts.compareAndSet(index, units, units - quantity));
+        return true;
+    }
+
+    /**
+     * wake the acquires waiting for units to come back
+     */
+    private void signalReturn() {
+        numOfReturns.incrementAndGet();
+        if (numOfWaiters.get() > 0) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * check that there is an order in which every live client can acquire the rest of its claim, finish and
+     * give back what it holds, and if there is, set the margins from it; the exclusive lock must be held
+     *
+     * Any client whose need fits in the work vector can finish, and finishing one never keeps another from it,
+     * so the clients can all finish exactly when repeatedly finishing such clients finishes them all. For each
+     * type a cursor walks the clients in order of need as the work vector grows; a client is ready once every
+     * type's cursor has passed it.
+     */
+    private boolean safe() {
+        int numOfClients = clients.size();
+        if (numOfResourceTypes == 0 || numOfClients == 0) {
+            return true;
+        }
+        if (satisfiedTypes.length < numOfClients) {
+            int capacity = Math.max(numOfClients, 2 * satisfiedTypes.length);
+            needOrder = new long[numOfResourceTypes][capacity];
+            satisfiedTypes = new int[capacity];
+            readyClients = new int[capacity];
+        }
+
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            work[type] = available.get(type * STRIDE);
+            foundMargins[type] = Integer.MAX_VALUE;
+            long[] order = needOrder[type];
+            for (int i = 0; i < numOfClients; i++) {
+                order[i] = (long) need(clients.get(i), type) << 32 | i;
+            }
+            Arrays.sort(order, 0, numOfClients);
+        }
+
+        Arrays.fill(satisfiedTypes, 0, numOfClients, 0);
+        int numOfReadyClients = 0;
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            needOrderCursor[type] = 0;
+            numOfReadyClients = advanceNeedOrderCursor(type, numOfClients, numOfReadyClients);
+        }
+
+        int unfinished = numOfClients;
+        while (numOfReadyClients > 0) {
+            // let a ready client finish and give back what it holds
+            Client client = clients.get(readyClients[--numOfReadyClients]);
+            unfinished--;
+            for (int type = 0; type < numOfResourceTypes; type++) {
+                foundMargins[type] = Math.min(foundMargins[type], work[type] - need(client, type));
+            }
+            for (int type = 0; type < numOfResourceTypes; type++) {
+                int held = client.held.get(type);
+                if (held > 0) {
+                    work[type] += held;
+                    numOfReadyClients = advanceNeedOrderCursor(type, numOfClients, numOfReadyClients);
+                }
+            }
+        }
+
+        if (unfinished > 0) {
+            return false;
+        }
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            margins.set(type * STRIDE, foundMargins[type]);
+        }
+        return true;
+    }
+
+    /**
+     * move a type's cursor past the clients whose need of it fits in the work vector, readying the clients
+     * whose need of every type now fits; return the new number of ready clients
+     */
+    private int advanceNeedOrderCursor(int type, int numOfClients, int numOfReadyClients) {
+        long[] order = needOrder[type];
+        int cursor = needOrderCursor[type];
+        while (cursor < numOfClients && (int) (order[cursor] >>> 32) <= work[type]) {
+            int i = (int) order[cursor];
+            if (++satisfiedTypes[i] == numOfResourceTypes) {
+                readyClients[numOfReadyClients++] = i;
+            }
+            cursor++;
+        }
+        needOrderCursor[type] = cursor;
+        return numOfReadyClients;
+    }
+
+    private static int need(Client client, int type) {
+        return client.claim[type] - client.held.get(type);
+    }
+}
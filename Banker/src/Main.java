@@ -3,17 +3,47 @@
 // Description: A Resource Management simulation that simulates both optimistic
 // and banker algorithms and prints the results to standard output.
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
 
 public class Main {
 
     public static void main(String[] args) {
 
         String fileName = getFileNameFromArgsOrExit(args);
-        Scanner sc = getScannerForFileNameOrExit(fileName);
-        ResourceManager rm = getResourceManagerFromScanner(sc);
+        ResourceManager rm = getResourceManagerFromFileOrExit(fileName);
+        setOptionsFromArgsOrExit(rm, args);
 
         // run the simulation
         rm.simulate();
@@ -35,139 +65,416 @@ public class Main {
     }
 
     /**
-     * Get a Scanner that can read a given file.
+     * Set the options given on the commandline after the file name.
+     *
+     * @param rm the ResourceManager to configure
+     * @param args an array of arguments
+     */
+    private static void setOptionsFromArgsOrExit(ResourceManager rm, String[] args) {
+        boolean threaded = false;
+        String lockstepOption = null; // the first option only the lockstep simulation has
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--partial-deadlock":
+                    rm.setDetectingPartialDeadlock(true);
+                    lockstepOption = lockstepOption == null ? args[i] : lockstepOption;
+                    break;
+                case "--batch":
+                    rm.setAdmittingInBatches(true);
+                    lockstepOption = lockstepOption == null ? args[i] : lockstepOption;
+                    break;
+                case "--safety-cache":
+                    lockstepOption = lockstepOption == null ? args[i] : lockstepOption;
+                    long capacity = 4096;
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                        capacity = getPositiveNumberOrExit(args[++i], "--safety-cache");
+                    }
+                    rm.setSafetyCacheCapacity((int) Math.min(capacity, Integer.MAX_VALUE));
+                    break;
+                case "--threaded":
+                    long tickMicros = 1000;
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                        tickMicros = getPositiveNumberOrExit(args[++i], "--threaded");
+                    }
+                    rm.setThreaded(TimeUnit.MICROSECONDS.toNanos(tickMicros));
+                    threaded = true;
+                    break;
+                case "--stats-out":
+                    if (i + 1 >= args.length || args[i + 1].startsWith("--")) {
+                        System.out.println("\n\n--stats-out needs a file name.\n\n");
+                        System.exit(0);
+                    }
+                    rm.setStatsFileName(args[++i]);
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                        long cycles = getPositiveNumberOrExit(args[++i], "--stats-out");
+                        rm.setStatsCapacity((int) Math.min(cycles, Integer.MAX_VALUE));
+                    }
+                    break;
+                case "--jfr":
+                    rm.setRecordingEvents(true);
+                    break;
+                default:
+                    System.out.println("\n\nUnknown option '" + args[i] + "'.\n\n");
+                    System.exit(0);
+            }
+        }
+
+        if (threaded && lockstepOption != null) {
+            System.out.println("\n\n" + lockstepOption + " cannot be used with --threaded.\n\n");
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Parse the positive number given to an option.
+     *
+     * @param value the argument following the option
+     * @param option the name of the option
+     * @return the number
+     */
+    private static long getPositiveNumberOrExit(String value, String option) {
+        long number = 0;
+        try {
+            number = Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        if (number <= 0) {
+            System.out.println("\n\n" + option + " needs a positive number, not '" + value + "'.\n\n");
+            System.exit(0);
+        }
+        return number;
+    }
+
+    /**
+     * Get a ResourceManager based on the data in a given file.
      *
      * @param fileName a file name string
-     * @return a Scanner that can read the file specified by fileName
+     * @return a ResourceManager for the file specified by fileName
      */
-    private static Scanner getScannerForFileNameOrExit(String fileName) {
-        Scanner sc = null;
+    private static ResourceManager getResourceManagerFromFileOrExit(String fileName) {
+        FileChannel channel = null;
         try {
-            sc = new Scanner(new File(fileName));
-        } catch(FileNotFoundException ex) {
+            channel = FileChannel.open(Paths.get(fileName));
+        } catch(NoSuchFileException | AccessDeniedException | InvalidPathException ex) {
             System.out.println("\n\nException: Input file not found.\n\n");
             System.exit(0);
+        } catch(IOException ex) {
+            System.out.println("\n\nException: Input file could not be opened.\n\n");
+            System.exit(0);
+        }
+
+        ResourceManager rm = null;
+        try (FileChannel in = channel) {
+            rm = new InputParser(in).parse();
+        } catch(IOException ex) {
+            System.out.println("\n\nException: Input file could not be read.\n\n");
+            System.exit(0);
+        } catch(NoSuchElementException ex) {
+            System.out.println("\n\nException: " + ex.getMessage() + "\n\n");
+            System.exit(0);
         }
-        return sc;
+        return rm;
     }
+}
+
+/**
+ * The InputParser class reads the data of an input file in one pass over its bytes: the number of Tasks and
+ * of resource types, the units of each type, then the Activities, each as a keyword and three numbers
+ *
+ * The bytes are read from a channel into a buffer that is reused, so a file of any size is read in chunks of the
+ * buffer's size; a token may straddle two chunks. Each keyword is turned into its opcode as it is read, and the
+ * Activities of every Task go into one ActivityProgram that the Tasks of both runs share.
+ */
+class InputParser {
 
     /**
-     * Get a ResourceManager based on data read by a Scanner.
-     *
-     * @param sc a Scanner
-     * @return a ResourceManager
+     * the size of the chunks the input is read in
      */
-    private static ResourceManager getResourceManagerFromScanner(Scanner sc) {
-        int numOfTasks = sc.nextInt();
-        int numOfResourceTypes = sc.nextInt();
+    private static final int BUFFER_SIZE = 1 << 16;
 
-        // get the tasks
-        Task[] optimisticTasks = new Task[numOfTasks];
-        Task[] bankerTasks = new Task[numOfTasks];
-        for (int i = 0; i < numOfTasks; i++) {
-            // initialize Tasks
-            optimisticTasks[i] = new Task(i+1, numOfResourceTypes);
-            bankerTasks[i] = new Task(i+1, numOfResourceTypes);
+    /**
+     * the longest keyword that can name a type of Activity
+     */
+    private static final int MAX_KEYWORD_LENGTH = 16;
+
+    /**
+     * the channel to read, the buffer it is read into, and the bytes of the buffer left to parse
+     */
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] bytes = buffer.array();
+    private int position;
+    private int limit;
+
+    /**
+     * the keyword being read
+     */
+    private final byte[] keyword = new byte[MAX_KEYWORD_LENGTH];
+
+    /**
+     * construct an InputParser that reads a channel from its current position to its end
+     */
+    InputParser(ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * read the input and get a ResourceManager for it
+     *
+     * @throws java.util.InputMismatchException if a number is malformed or an Activity names a Task that does
+     * not exist
+     * @throws NoSuchElementException if the input ends in the middle of the data
+     */
+    ResourceManager parse() throws IOException {
+        int numOfTasks = nextInt();
+        int numOfResourceTypes = nextInt();
+        if (numOfTasks < 0 || numOfResourceTypes < 0) {
+            throw new InputMismatchException("The number of tasks and of resource types cannot be negative.");
         }
 
         // get the resources
         int[] resources = new int[numOfResourceTypes];
         for (int i = 0; i < numOfResourceTypes; i++) {
-            resources[i] = sc.nextInt();
+            resources[i] = nextInt();
         }
 
-        // add activities to each task
-        while(sc.hasNext()) {
-            String type = sc.next();
-            int taskNum = sc.nextInt() - 1;
-            int prop1 = sc.nextInt();
-            int prop2 = sc.nextInt();
+        // add activities to the program of each task
+        ActivityProgram program = new ActivityProgram(numOfTasks);
+        while (skipWhitespace()) {
+            int opcode = nextOpcode();
+            int taskNum = nextInt() - 1;
+            int prop1 = nextInt();
+            int prop2 = nextInt();
 
-            Activity optimisticAct = new Activity(type, prop1, prop2);
-            Activity bankerAct = new Activity(type, prop1, prop2);
+            if (taskNum < 0 || taskNum >= numOfTasks) {
+                throw new InputMismatchException("Activity for task " + (taskNum + 1) + ", which does not exist.");
+            }
+            program.addActivity(taskNum, opcode, prop1, prop2);
+        }
+        program.trim();
 
-            optimisticTasks[taskNum].addNextActivity(optimisticAct);
-            bankerTasks[taskNum].addNextActivity(bankerAct);
+        // get the tasks; both runs follow the same program
+        Task[] optimisticTasks = new Task[numOfTasks];
+        Task[] bankerTasks = new Task[numOfTasks];
+        for (int i = 0; i < numOfTasks; i++) {
+            optimisticTasks[i] = new Task(i+1, program);
+            bankerTasks[i] = new Task(i+1, program);
         }
 
         // create the Resource Manager
         return new ResourceManager(resources, optimisticTasks, bankerTasks);
     }
-}
-
-/**
- * The Activity class represents an activity for a Task
- */
-class Activity {
 
     /**
-     * types of Activities
+     * make sure there are bytes left to parse, reading the next chunk if needed; return false at the end
+     * of the input
      */
-    static final String INITIATE = "initiate";
-    static final String REQUEST = "request";
-    static final String RELEASE = "release";
-    static final String TERMINATE = "terminate";
-    private static final String COMPUTE = "compute";
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+
+        buffer.clear();
+        int n;
+        do {
+            n = channel.read(buffer);
+        } while (n == 0);
+        position = 0;
+        limit = Math.max(n, 0);
+        return n > 0;
+    }
 
     /**
-     * data that defines what the Activity does
+     * return true if a byte separates tokens; any control character or space does
      */
-    private String type;
-    private int prop1;
-    private int prop2;
+    private static boolean isWhitespace(byte b) {
+        return (b & 0xff) <= ' ';
+    }
 
     /**
-     * a reference to the next Activity that occurs after this Activity
+     * skip to the start of the next token; return false if there is none
      */
-    private Activity next;
+    private boolean skipWhitespace() throws IOException {
+        while (fill()) {
+            while (position < limit) {
+                if (!isWhitespace(bytes[position])) {
+                    return true;
+                }
+                position++;
+            }
+        }
+        return false;
+    }
 
     /**
-     * construct an Activity with a type and two props
+     * read the next token as a keyword and get its opcode
      */
-    Activity(String type, int prop1, int prop2) {
-        this.type = type;
-        this.prop1 = prop1;
-        this.prop2 = prop2;
+    private int nextOpcode() throws IOException {
+        int length = 0;
+        while (fill() && !isWhitespace(bytes[position])) {
+            if (length < MAX_KEYWORD_LENGTH) {
+                keyword[length] = bytes[position];
+            }
+            length++;
+            position++;
+        }
+        return length > MAX_KEYWORD_LENGTH ? Activity.NONE : Activity.getOpcode(keyword, length);
     }
 
     /**
-     * Get the type
+     * read the next token as a decimal number
      */
-    String getType() { return type; }
+    private int nextInt() throws IOException {
+        if (!skipWhitespace()) {
+            throw new NoSuchElementException("Input file ended too soon.");
+        }
+
+        boolean negative = false;
+        if (bytes[position] == '-' || bytes[position] == '+') {
+            negative = bytes[position] == '-';
+            position++;
+        }
+
+        long value = 0;
+        int digits = 0;
+        while (fill() && !isWhitespace(bytes[position])) {
+            int digit = bytes[position] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                throw new InputMismatchException("Input file has a malformed number.");
+            }
+            value = 10 * value + digit;
+            digits++;
+            position++;
+        }
+
+        value = negative ? -value : value;
+        if (digits == 0 || value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            throw new InputMismatchException("Input file has a malformed number.");
+        }
+        return (int) value;
+    }
+}
+
+/**
+ * The ActivityProgram class holds the Activities of every Task read from an input: the opcode and two props of
+ * each, by Task and in the order they are performed
+ *
+ * Activities are only added while the input is read. After that the program does not change, and the Tasks
+ * of every run share it, each following its own part with its own program counter.
+ */
+class ActivityProgram {
+
+    private static final int[] EMPTY = new int[0];
 
     /**
-     * Get the prop1
+     * the opcodes and props of each Task's Activities, by the Task's row, and the number of Activities each has
      */
-    int getProp1() { return prop1; }
+    private final int[][] opcodes;
+    private final int[][] props1;
+    private final int[][] props2;
+    private final int[] numOfActivities;
 
     /**
-     * Get the prop2
+     * construct an empty program for a number of Tasks
      */
-    int getProp2() { return  prop2; }
+    ActivityProgram(int numOfTasks) {
+        opcodes = new int[numOfTasks][];
+        props1 = new int[numOfTasks][];
+        props2 = new int[numOfTasks][];
+        numOfActivities = new int[numOfTasks];
+        Arrays.fill(opcodes, EMPTY);
+        Arrays.fill(props1, EMPTY);
+        Arrays.fill(props2, EMPTY);
+    }
 
     /**
-     * return true if the Activity still needs to compute, false otherwise
+     * add an Activity to the end of the program of the Task in a row
      */
-    boolean needsToCompute() {
-        return type.equals(COMPUTE) && prop1 > 0;
+    void addActivity(int row, int opcode, int prop1, int prop2) {
+        int n = numOfActivities[row];
+        if (n == opcodes[row].length) {
+            // the Task's program is full so double its capacity
+            int capacity = Math.max(4, 2 * n);
+            opcodes[row] = Arrays.copyOf(opcodes[row], capacity);
+            props1[row] = Arrays.copyOf(props1[row], capacity);
+            props2[row] = Arrays.copyOf(props2[row], capacity);
+        }
+
+        opcodes[row][n] = opcode;
+        props1[row][n] = prop1;
+        props2[row][n] = prop2;
+        numOfActivities[row] = n + 1;
     }
 
     /**
-     * Allow the Activity to compute once
+     * give back the capacity left over from adding Activities, once they have all been added
      */
-    void compute() {
-        prop1--;
+    void trim() {
+        for (int row = 0; row < opcodes.length; row++) {
+            if (numOfActivities[row] < opcodes[row].length) {
+                opcodes[row] = Arrays.copyOf(opcodes[row], numOfActivities[row]);
+                props1[row] = Arrays.copyOf(props1[row], numOfActivities[row]);
+                props2[row] = Arrays.copyOf(props2[row], numOfActivities[row]);
+            }
+        }
     }
 
     /**
-     * Get the next Activity
+     * get the opcodes of the Activities of the Task in a row; the array must not be changed
+     */
+    int[] getOpcodes(int row) { return opcodes[row]; }
+
+    /**
+     * get the prop1 of each Activity of the Task in a row; the array must not be changed
+     */
+    int[] getProps1(int row) { return props1[row]; }
+
+    /**
+     * get the prop2 of each Activity of the Task in a row; the array must not be changed
+     */
+    int[] getProps2(int row) { return props2[row]; }
+}
+
+/**
+ * The Activity class names the types of Activities a Task can perform; a Task keeps its Activities as
+ * a program of these opcodes
+ */
+class Activity {
+
+    /**
+     * opcodes of the types of Activities; any other keyword is an Activity that does nothing
      */
-    Activity getNext() { return next; }
+    static final int NONE = 0;
+    static final int INITIATE = 1;
+    static final int REQUEST = 2;
+    static final int RELEASE = 3;
+    static final int TERMINATE = 4;
+    static final int COMPUTE = 5;
 
     /**
-     * Set the next Activity
+     * the keyword of each type of Activity in the input, by opcode
      */
-    void setNext(Activity a) { next = a; }
+    private static final byte[][] KEYWORDS = {
+        null,
+        "initiate".getBytes(StandardCharsets.US_ASCII),
+        "request".getBytes(StandardCharsets.US_ASCII),
+        "release".getBytes(StandardCharsets.US_ASCII),
+        "terminate".getBytes(StandardCharsets.US_ASCII),
+        "compute".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    /**
+     * get the opcode of an Activity keyword from the input, given as the first bytes of an array
+     */
+    static int getOpcode(byte[] keyword, int length) {
+        for (int opcode = INITIATE; opcode < KEYWORDS.length; opcode++) {
+            if (Arrays.equals(KEYWORDS[opcode], 0, KEYWORDS[opcode].length, keyword, 0, length)) {
+                return opcode;
+            }
+        }
+        return NONE;
+    }
 }
 
 /**
@@ -200,32 +507,34 @@ class Task {
     private int status;
 
     /**
-     * the resources held by the task
-     */
-    private int[] resources;
-
-    /**
-     * the initial claims of the Task
+     * the Task's part of the ActivityProgram: the opcode and two props of each Activity, in the order they
+     * are performed; shared with the Tasks of the other runs and never changed
      */
-    private int[] initialClaims;
+    private final int[] opcodes;
+    private final int[] props1;
+    private final int[] props2;
+    private final int numOfActivities;
 
     /**
-     * the head of a linked list of Activities
+     * the index of the current Activity, and the cycles the current compute Activity has left
      */
-    private Activity nextActivity;
+    private int pc;
+    private int computeTimeLeft;
 
     /**
-     * construct a Task
+     * construct a Task that follows its part of an ActivityProgram; the resources it claims and holds are kept
+     * by the SimulationEngine running it in the row of its matrices given by the Task's id
      */
-    Task(int id, int numOfResourceTypes) {
+    Task(int id, ActivityProgram program) {
         this.id = id;
-
-        // initialize the size of resources and initialClaims arrays
-        resources = new int[numOfResourceTypes];
-        initialClaims = new int[numOfResourceTypes];
+        opcodes = program.getOpcodes(getRow());
+        props1 = program.getProps1(getRow());
+        props2 = program.getProps2(getRow());
+        numOfActivities = opcodes.length;
 
         // initialize the status to ACTIVE
         status = ACTIVE;
+        startActivity();
     }
 
     /**
@@ -234,89 +543,82 @@ class Task {
     int getId() { return id; }
 
     /**
-     * get a clone of the initial claims array
+     * get the Task's row in its SimulationEngine's matrices
      */
-    int[] getInitialClaims() { return initialClaims.clone(); }
+    int getRow() { return id - 1; }
 
     /**
-     * get a clone of the resources array
+     * get the time spent in the ACTIVE status
      */
-    int[] getResources() { return resources.clone(); }
+    int getActiveTime() { return activeTime; }
 
     /**
-     * add resources for a given resource type
+     * get the time spent in the BLOCKED status
      */
-    void addResources(int type, int quantity) {
-        resources[type - 1] += quantity;
-    }
+    int getBlockedTime() { return blockedTime; }
 
     /**
-     * remove resources for a given resource type
+     * get the current status
      */
-    void removeResources(int type, int quantity) {
-        resources[type - 1] -= quantity;
-    }
+    int getStatus() { return status; }
 
     /**
-     * get the time spent in the ACTIVE status
+     * get the opcode of the current Activity
      */
-    int getActiveTime() { return activeTime; }
+    int getOpcode() { return opcodes[pc]; }
 
     /**
-     * get the time spent in the BLOCKED status
+     * get the prop1 of the current Activity
      */
-    int getBlockedTime() { return blockedTime; }
+    int getProp1() { return props1[pc]; }
 
     /**
-     * get the current status
+     * get the prop2 of the current Activity
      */
-    int getStatus() { return status; }
+    int getProp2() { return props2[pc]; }
 
     /**
-     * get the current Activity for the task
+     * get the number of Activities in the Task's program
      */
-    Activity getNextActivity() { return nextActivity; }
+    int getNumOfActivities() { return numOfActivities; }
 
     /**
-     * add an initiate Activity's claim to the initialClaims array
+     * get the opcode of the Activity at an index of the Task's program
      */
-    private void addInitiateActivity(Activity a) {
-        int type = a.getProp1();
-        int quantity = a.getProp2();
-        initialClaims[type - 1] = quantity;
-    }
+    int getOpcode(int index) { return opcodes[index]; }
+
+    /**
+     * get the prop1 of the Activity at an index of the Task's program
+     */
+    int getProp1(int index) { return props1[index]; }
+
+    /**
+     * get the prop2 of the Activity at an index of the Task's program
+     */
+    int getProp2(int index) { return props2[index]; }
 
     /**
-     * move the current head Activity one node down the linked list
+     * move on to the next Activity in the program
      */
     private void goToNextActivity() {
-        nextActivity = nextActivity.getNext();
+        pc++;
+        startActivity();
     }
 
     /**
-     * add an Activity to the Task by adding it to the linked list of Activities
+     * start the current Activity; a compute Activity counts down its number of cycles
      */
-    void addNextActivity(Activity a) {
-
-        if (a.getType().equals(Activity.INITIATE)) {
-            // the Activity is of type INITIATE so save its claim
-            addInitiateActivity(a);
+    private void startActivity() {
+        if (pc < numOfActivities && opcodes[pc] == Activity.COMPUTE) {
+            computeTimeLeft = props1[pc];
         }
+    }
 
-
-        if (nextActivity == null) {
-            // the linked list of Activities has no head so initialize the head
-            nextActivity = a;
-        } else {
-            // add the Activity to the tail of the linked list of Activities
-            Activity curActivity = nextActivity;
-            while (curActivity.getNext() != null) {
-                curActivity = curActivity.getNext();
-            }
-
-            // curActivity is the tail
-            curActivity.setNext(a);
-        }
+    /**
+     * return true if the current Activity still needs to compute, false otherwise
+     */
+    private boolean needsToCompute() {
+        return opcodes[pc] == Activity.COMPUTE && computeTimeLeft > 0;
     }
 
     /**
@@ -349,15 +651,47 @@ class Task {
      */
     boolean wasAborted() { return aborted; }
 
+    /**
+     * get the number of cycles the Task will still compute before moving on, or 0 if the Task is not
+     * in the middle of a compute Activity
+     */
+    int getComputeTimeLeft() {
+        return status == ACTIVE && needsToCompute() ? computeTimeLeft : 0;
+    }
+
+    /**
+     * let a number of cycles pass in which the Task does nothing but compute or wait, as if it cycled
+     * that many times; an active Task must have more than that many cycles of computing left
+     */
+    void skip(int cycles) {
+        if (status == ACTIVE) {
+            computeTimeLeft -= cycles;
+            activeTime += cycles;
+        }
+
+        if (status == BLOCKED) {
+            blockedTime += cycles;
+        }
+    }
+
+    /**
+     * record the time the Task spent active and blocked when its Activities were run outside of the cycles
+     * of a simulation
+     */
+    void recordTime(int activeTime, int blockedTime) {
+        this.activeTime = activeTime;
+        this.blockedTime = blockedTime;
+    }
+
     /**
      * allow the task to cycle once
      */
     void cycle() {
         if (status == ACTIVE) {
-            if (nextActivity.needsToCompute()) {
+            if (needsToCompute()) {
                 // allow the current Activity to compute once
-                nextActivity.compute();
-                if (!nextActivity.needsToCompute()) {
+                computeTimeLeft--;
+                if (!needsToCompute()) {
                     // the current Activity is done
 
                     // move on to the next Activity
@@ -380,456 +714,2669 @@ class Task {
 }
 
 /**
- * The ResourceManager class represents a resource manager that can simulate
- * optimistic and banker resource management algorithms on a set of Tasks
+ * The Engine interface is a run of one resource management algorithm on its own Tasks and resources
  */
-class ResourceManager {
+interface Engine extends Runnable {
 
     /**
-     * the number of cycles run
+     * get the messages reported during the run, in the order they are to be printed
      */
-    private int cycleNum;
+    List<String> getMessages();
 
     /**
-     * data that represents resources held by the Resource Manager
+     * get the statistics of the run that are printed after the results, if any
      */
-    private int numOfResourceTypes;
-    private int[] resources;
-    private int[] releasedResources;
+    default List<String> getStatistics() { return Collections.emptyList(); }
+}
 
-    /**
-     * data that represents Tasks the Resource Manager must serve
-     */
-    private Task[] tasks;
-    private Queue<Task> blockedTaskQueue;
-    private int numOfBlockedTasks;
-    private int numOfTerminatedTasks;
+/**
+ * The StateKey class is a 128-bit fingerprint of the state a safety check decides on; a key that is only
+ * used to probe a map may be set to another fingerprint, but a key stored in a map must never be changed
+ */
+class StateKey {
 
-    /**
-     * the resources and Tasks to be used during simulation of the optimistic algorithm
-     */
-    private int[] optimisticResources;
-    private Task[] optimisticTasks;
+    private long hash0;
+    private long hash1;
 
-    /**
-     * the resources and Tasks to be used during simulation of the banker algorithm
-     */
-    private int[] bankerResources;
-    private Task[] bankerTasks;
+    StateKey(long hash0, long hash1) {
+        this.hash0 = hash0;
+        this.hash1 = hash1;
+    }
 
-    /**
-     * constructs a ResourceManager with given resources and separate Tasks for optimistic and banker simulations
-     */
-    ResourceManager(int[] resources, Task[] optimisticTasks, Task[] bankerTasks) {
-        this.optimisticResources = resources.clone();
-        this.optimisticTasks = optimisticTasks;
+    void set(long hash0, long hash1) {
+        this.hash0 = hash0;
+        this.hash1 = hash1;
+    }
 
-        this.bankerResources = resources.clone();
-        this.bankerTasks = bankerTasks;
+    long hash0() { return hash0; }
 
-        numOfResourceTypes = resources.length;
+    long hash1() { return hash1; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StateKey)) {
+            return false;
+        }
+        StateKey other = (StateKey) o;
+        return hash0 == other.hash0 && hash1 == other.hash1;
     }
 
+    @Override
+    public int hashCode() { return (int) (hash0 ^ (hash0 >>> 32)); }
+}
+
+/**
+ * The NeedTree class answers the banker's safety check for Tasks that each claim units of only one resource type
+ *
+ * Such Tasks only ever hold and need units of the type they claim, so the Tasks claiming each type can finish
+ * or not regardless of the other types. With one type, finishing the Tasks in order of need is as good as any
+ * order, so the Tasks can all finish exactly when each one's need fits in the available units plus the
+ * allocations of the Tasks before it. For each type a treap keeps the live Tasks claiming it ordered by need,
+ * and every node keeps the sum of the allocations in its subtree and the largest amount by which a need in its
+ * subtree exceeds the allocations before it within the subtree; the root's is the fewest units the type must
+ * have available to be safe. Each update is O(log tasks) expected and each check O(1).
+ */
+class NeedTree {
+
     /**
-     * check if a Task's initiate Activity claim is safe, abort the Task if not safe
+     * the root of the treap of each resource type, -1 if it is empty
      */
-    private void handleInitiate(Task t, int resourceType, int resourceClaim) {
-        if (resources[resourceType - 1] < resourceClaim) {
-            abortTask(t);
+    private final int[] roots;
 
-            String claim = " (" + resourceClaim + ")";
-            String units = " (" + resources[resourceType - 1] + ")";
-            int id = t.getId();
-            String message = "\nBanker aborts task " + id + " before run begins; claim for resource " + resourceType + claim + " exceeds number of units present" + units;
-            System.out.println(message);
-        }
-    }
+    /**
+     * the nodes, one per Task row: the type the Task claims, or -1 if the Task is not in a treap; the children
+     * and priority; the Task's need and allocation; and the aggregates of the subtree
+     */
+    private final int[] types;
+    private final int[] left;
+    private final int[] right;
+    private final int[] priority;
+    private final int[] need;
+    private final int[] allocation;
+    private final long[] allocationSum;
+    private final long[] excess;
 
     /**
-     * activate a task
+     * constructs an empty NeedTree for a number of Tasks and resource types
      */
-    private void activateTask(Task t) {
-        if (t.getStatus() == Task.BLOCKED) {
-            numOfBlockedTasks--;
+    NeedTree(int numOfTasks, int numOfResourceTypes) {
+        roots = new int[numOfResourceTypes];
+        Arrays.fill(roots, -1);
+        types = new int[numOfTasks];
+        Arrays.fill(types, -1);
+        left = new int[numOfTasks];
+        right = new int[numOfTasks];
+        priority = new int[numOfTasks];
+        need = new int[numOfTasks];
+        allocation = new int[numOfTasks];
+        allocationSum = new long[numOfTasks];
+        excess = new long[numOfTasks];
+
+        SplittableRandom random = new SplittableRandom(numOfTasks);
+        for (int row = 0; row < numOfTasks; row++) {
+            priority[row] = random.nextInt();
         }
-        t.activate();
     }
 
     /**
-     * block a task
+     * return true if the Task in a row is in a treap
      */
-    private void blockTask(Task t) {
-        t.block();
+    boolean contains(int row) { return types[row] >= 0; }
 
-        // add the task to the back of the blocked task queue
-        blockedTaskQueue.add(t);
-
-        numOfBlockedTasks++;
+    /**
+     * add the Task in a row to the treap of the type it claims, with its need and allocation of that type
+     */
+    void insert(int row, int type, int need, int allocation) {
+        types[row] = type;
+        left[row] = -1;
+        right[row] = -1;
+        this.need[row] = need;
+        this.allocation[row] = allocation;
+        update(row);
+        roots[type] = insert(roots[type], row);
     }
 
     /**
-     * terminate a task
+     * take the Task in a row out of its treap
      */
-    private void terminateTask(Task t) {
-        t.terminate();
-        numOfTerminatedTasks++;
+    void remove(int row) {
+        int type = types[row];
+        roots[type] = remove(roots[type], row);
+        types[row] = -1;
     }
 
     /**
-     * abort a task and reclaim any resources it held
+     * return true if every live Task claiming a type could finish with the given units of it available
      */
-    private void abortTask(Task t) {
-        t.abort();
-        numOfTerminatedTasks++;
-
-        int[] taskResources = t.getResources();
-        for (int i = 0; i < taskResources.length; i++) {
-            resources[i] += taskResources[i];
-        }
+    boolean fits(int type, int available) {
+        int root = roots[type];
+        return root < 0 || excess[root] <= available;
     }
 
     /**
-     * for banker's algorithm; check if the current state is safe; verify that there exists some ordering of
-     * max-requests by the Tasks such that all Tasks will eventually terminate
+     * return true if the Task in row a comes before the Task in row b in need order
      */
-    private boolean safe() {
+    private boolean before(int a, int b) {
+        return need[a] < need[b] || (need[a] == need[b] && a < b);
+    }
 
-        // the resources available throughout the safety check
-        int[] dummyResources = resources.clone();
+    private int insert(int node, int row) {
+        if (node < 0) {
+            return row;
+        }
 
-        // a queue to store the available tasks throughout the safety check
-        Queue<Task> queue = new ArrayDeque<>();
+        if (before(row, node)) {
+            left[node] = insert(left[node], row);
+            if (priority[left[node]] > priority[node]) {
+                node = rotateRight(node);
+            }
+        } else {
+            right[node] = insert(right[node], row);
+            if (priority[right[node]] > priority[node]) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private int remove(int node, int row) {
+        if (node == row) {
+            return merge(left[node], right[node]);
+        }
+
+        if (before(row, node)) {
+            left[node] = remove(left[node], row);
+        } else {
+            right[node] = remove(right[node], row);
+        }
+        update(node);
+        return node;
+    }
+
+    private int merge(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+
+        if (priority[a] > priority[b]) {
+            right[a] = merge(right[a], b);
+            update(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        update(b);
+        return b;
+    }
+
+    private int rotateRight(int node) {
+        int child = left[node];
+        left[node] = right[child];
+        right[child] = node;
+        update(node);
+        update(child);
+        return child;
+    }
+
+    private int rotateLeft(int node) {
+        int child = right[node];
+        right[node] = left[child];
+        left[child] = node;
+        update(node);
+        update(child);
+        return child;
+    }
+
+    /**
+     * recompute the aggregates of a node from its children's
+     */
+    private void update(int node) {
+        int l = left[node];
+        int r = right[node];
+        long before = l < 0 ? 0 : allocationSum[l];
+
+        long e = need[node] - before;
+        if (l >= 0) {
+            e = Math.max(e, excess[l]);
+        }
+        if (r >= 0) {
+            e = Math.max(e, excess[r] - before - allocation[node]);
+        }
+        excess[node] = e;
+        allocationSum[node] = before + allocation[node] + (r < 0 ? 0 : allocationSum[r]);
+    }
+}
+
+/**
+ * The SimulationEngine class simulates one resource management algorithm serving its own Tasks and resources;
+ * engines share nothing that changes during a run, so several can run at the same time
+ */
+class SimulationEngine implements Engine {
+
+    /**
+     * the number of cycles run
+     */
+    private int cycleNum;
+
+    /**
+     * the number of safety checks run, and whether they are timed and how long they took in all
+     */
+    private long numOfSafetyChecks;
+    private boolean timingSafetyChecks;
+    private long safetyCheckNanos;
+
+    /**
+     * the number of times the safety of a state was asked about, and how many of those found it unsafe; the
+     * number of requests granted and Tasks aborted
+     */
+    private long numOfSafetyQueries;
+    private long numOfUnsafeVerdicts;
+    private long numOfGrants;
+    private long numOfAborts;
+
+    /**
+     * the per-cycle samples of the run's counters and timers, or null if the run is not sampled
+     */
+    private CycleStats cycleStats;
+
+    /**
+     * data that represents resources held by the engine
+     */
+    private int numOfResourceTypes;
+    private int[] resources;
+    private int[] releasedResources;
+
+    /**
+     * data that represents Tasks the engine must serve
+     */
+    private Task[] tasks;
+    private int numOfBlockedTasks;
+
+    /**
+     * for each resource type, the blocked Tasks waiting on a request of that type in the order they blocked,
+     * the order in which every Task last blocked, and the types whose waiters are retried at the next serve
+     * because resources they might be waiting on came back
+     */
+    private List<ArrayDeque<Task>> waitLists;
+    private long[] blockOrder;
+    private long numOfBlocks;
+    private boolean[] wokenTypes;
+    private List<Task> waitersToRetry;
+
+    /**
+     * whether the run avoids deadlock with the banker's algorithm
+     */
+    private boolean avoidingDeadlock;
+    private int numOfTerminatedTasks;
+
+    /**
+     * claim, allocation and need matrices, one row of numOfResourceTypes per Task in Task id order; the claims
+     * come from the initiate Activities and are shared read-only by every run, the allocation and need of this run
+     * are kept up to date in place as resources are granted, released and reclaimed
+     */
+    private int[] claims;
+    private int[] allocation;
+    private int[] need;
+
+    /**
+     * for each resource type, the Task rows ordered by their need of that type, and the position of every
+     * Task row in each of those orders
+     */
+    private int[][] needOrder;
+    private int[][] needOrderPosition;
+
+    /**
+     * safety checks of at least this many matrix cells run in parallel waves on machines with more than one
+     * processor, split into pieces of about the grain, and go on with waves while each finishes more than one
+     * in WAVE_FRACTION of the Tasks left; rows are compared in blocks of types
+     */
+    private static final long PARALLEL_SAFETY_CHECK_CELLS = 1 << 18;
+    private static final long PARALLEL_GRAIN_CELLS = 1 << 14;
+    private static final int WAVE_FRACTION = 8;
+    private static final int ROW_COMPARE_BLOCK = 64;
+    private static final int PARALLELISM = ForkJoinPool.getCommonPoolParallelism();
+
+    /**
+     * scratch buffers reused by every safety check; the candidates of a wave and which of them are ready
+     */
+    private int[] work;
+    private int[] satisfiedTypes;
+    private boolean[] finished;
+    private int[] readyTasks;
+    private int[] needOrderCursor;
+    private int[] waveCandidates;
+    private boolean[] waveReady;
+
+    /**
+     * for the optimistic algorithm, whether deadlocks among a subset of the Tasks are detected as soon as they
+     * form rather than once every Task is blocked, and the Tasks that blocked during the current cycle, whose
+     * wait-for closures are where a new deadlock can be
+     */
+    private boolean detectingPartialDeadlock;
+    private List<Task> newlyBlockedTasks;
+    private boolean[] inClosure;
+    private boolean[] typeInClosure;
+
+    /**
+     * for partial deadlock detection, the wait-for graph kept up to date as allocations change: for each resource
+     * type, the rows of the Tasks holding units of it, and the position of every matrix cell's row in its type's
+     * list, or -1 if the row holds none of the type
+     */
+    private int[][] holders;
+    private int[] numOfHolders;
+    private int[] holderPosition;
+
+    /**
+     * for partial deadlock detection, reused by every detection: the blocked members of a closure by the type
+     * they requested, a cursor per type past those whose requests fit, the types that have any, and the members
+     * that are ready to finish
+     */
+    private List<List<Task>> closureWaiters;
+    private int[] closureWaiterCursor;
+    private int[] closureTypes;
+    private int numOfClosureTypes;
+    private List<Task> reducible;
+
+    /**
+     * for partial deadlock detection, the most abort sets tried in the search for a smallest one before the
+     * deadlocked Tasks are aborted greedily instead, and the search's scratch buffers: the deadlocked Tasks in
+     * id order, the abort set being tried as positions among them, and its reduction's work vector and
+     * finished flags
+     */
+    private static final int MAX_ABORT_SETS_TRIED = 1 << 12;
+    private Task[] deadlocked;
+    private int[] abortSet;
+    private int[] abortWork;
+    private boolean[] abortFinished;
+
+    /**
+     * for the banker's algorithm, whether the requests served one after another are admitted as a batch with
+     * one safety check, and the pending batch: each request's Task, type and quantity, and whether it was
+     * tentatively granted
+     */
+    private boolean admittingInBatches;
+    private Task[] batchTasks;
+    private int[] batchTypes;
+    private int[] batchQuantities;
+    private boolean[] batchGranted;
+    private int batchSize;
+
+    /**
+     * for the banker's algorithm, a bounded cache of safety check verdicts, least recently used first, keyed by
+     * the available resources and the multiset of the live Tasks' need and allocation rows; each row's fingerprint
+     * is a sum of hashes of its cells, kept up to date as cells change, and the multiset's is a sum of mixes of
+     * the rows' fingerprints, in two independent 64-bit lanes; lookups probe with a reused key, so only states
+     * added to the cache allocate one
+     */
+    private LinkedHashMap<StateKey, Boolean> safetyCache;
+    private final StateKey probeKey = new StateKey(0, 0);
+    private long[][] rowHashes;
+    private long[] liveRowsHash;
+    private long safetyCacheHits;
+    private long safetyCacheMisses;
+
+    /**
+     * for the banker's algorithm when every Task claims units of at most one resource type, the Tasks claiming
+     * each type ordered by need, which answer safety checks type by type; null otherwise
+     */
+    private NeedTree needTree;
+
+    /**
+     * the pending-request index used while breaking a deadlock: for each resource type, its waiters in order
+     * of the quantity they request, and a cursor past the waiters that have since been aborted
+     */
+    private Task[][] waitersByQuantity;
+    private int[] waitersByQuantityCursor;
+
+    /**
+     * the messages the run reports, kept until every run is done so that they print in order
+     */
+    private List<String> messages = new ArrayList<>();
+
+    /**
+     * constructs an engine that simulates the optimistic algorithm if deadlock can occur, or the banker's
+     * algorithm if not, on given resources and Tasks with the given claim matrix
+     */
+    SimulationEngine(int[] resources, Task[] tasks, int[] claims, boolean canDeadlock) {
+        this.resources = resources;
+        this.tasks = tasks;
+        this.claims = claims;
+        numOfResourceTypes = resources.length;
+        avoidingDeadlock = !canDeadlock;
+
+        releasedResources = new int[numOfResourceTypes];
+        waitLists = new ArrayList<>(numOfResourceTypes);
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            waitLists.add(new ArrayDeque<>());
+        }
+        blockOrder = new long[tasks.length];
+        wokenTypes = new boolean[numOfResourceTypes];
+        waitersToRetry = new ArrayList<>();
+        waitersByQuantity = new Task[numOfResourceTypes][];
+        waitersByQuantityCursor = new int[numOfResourceTypes];
+
+        prepareMatrices();
+    }
+
+    /**
+     * have the requests served one after another admitted as a batch with one safety check, backing off only
+     * when the batch is unsafe; only used by the banker's algorithm, and grants exactly what serving the
+     * requests one at a time would
+     */
+    void setAdmittingInBatches(boolean admittingInBatches) {
+        this.admittingInBatches = admittingInBatches;
+        batchTasks = new Task[tasks.length];
+        batchTypes = new int[tasks.length];
+        batchQuantities = new int[tasks.length];
+        batchGranted = new boolean[tasks.length];
+    }
+
+    /**
+     * have the verdicts of safety checks kept in a cache of up to the given number of states, least recently
+     * used first; only used by the banker's algorithm
+     */
+    void setSafetyCacheCapacity(int capacity) {
+        safetyCache = new LinkedHashMap<StateKey, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StateKey, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        rowHashes = new long[2][tasks.length];
+        liveRowsHash = new long[2];
+        for (int row = 0; row < tasks.length; row++) {
+            for (int lane = 0; lane < 2; lane++) {
+                for (int type = 0; type < numOfResourceTypes; type++) {
+                    int cell = row * numOfResourceTypes + type;
+                    rowHashes[lane][row] += cellHash(lane, type, need[cell], allocation[cell]);
+                }
+                liveRowsHash[lane] += mix(rowHashes[lane][row] + lane);
+            }
+        }
+    }
+
+    /**
+     * get the statistics of the safety check cache
+     */
+    public List<String> getStatistics() {
+        if (safetyCache == null) {
+            return Collections.emptyList();
+        }
+        long lookups = safetyCacheHits + safetyCacheMisses;
+        double hitRate = lookups == 0 ? 0 : 100.0 * safetyCacheHits / lookups;
+        return Collections.singletonList(String.format("Banker's safety check cache: %d hits, %d misses, %.2f%% hit rate, %d states",
+                safetyCacheHits, safetyCacheMisses, hitRate, safetyCache.size()));
+    }
+
+    /**
+     * have safety checks answered for each resource type on its own from the Tasks claiming it, ordered by need;
+     * only used by the banker's algorithm, and only when every Task claims units of at most one type
+     */
+    void setCheckingTypesIndependently(boolean checkingTypesIndependently) {
+        if (!checkingTypesIndependently) {
+            if (needTree != null) {
+                // the need orders were left alone while the need tree answered
+                needTree = null;
+                sortNeedOrders();
+            }
+            return;
+        }
+
+        needTree = new NeedTree(tasks.length, numOfResourceTypes);
+        for (int row = 0; row < tasks.length; row++) {
+            for (int type = 0; type < numOfResourceTypes; type++) {
+                int cell = row * numOfResourceTypes + type;
+                if (claims[cell] > 0 && tasks[row].getStatus() != Task.TERMINATED) {
+                    needTree.insert(row, type, need[cell], allocation[cell]);
+                }
+            }
+        }
+    }
+
+    /**
+     * have the time taken by safety checks measured
+     */
+    void setTimingSafetyChecks(boolean timingSafetyChecks) {
+        this.timingSafetyChecks = timingSafetyChecks;
+    }
+
+    /**
+     * have the run's counters and timers sampled every cycle; safety checks are timed for the samples
+     */
+    void setCycleStats(CycleStats cycleStats) {
+        this.cycleStats = cycleStats;
+        setTimingSafetyChecks(true);
+    }
+
+    /**
+     * get the number of cycles run
+     */
+    int getCycleNum() { return cycleNum; }
+
+    /**
+     * get the number of safety checks run, not counting verdicts found in the cache
+     */
+    long getNumOfSafetyChecks() { return numOfSafetyChecks; }
+
+    /**
+     * get the time taken by the safety checks run while they were timed
+     */
+    long getSafetyCheckNanos() { return safetyCheckNanos; }
+
+    /**
+     * have deadlocks among a subset of the Tasks detected and broken as soon as they form; only used by the
+     * optimistic algorithm, since the banker's algorithm never deadlocks
+     */
+    void setDetectingPartialDeadlock(boolean detectingPartialDeadlock) {
+        this.detectingPartialDeadlock = detectingPartialDeadlock;
+        newlyBlockedTasks = new ArrayList<>();
+        inClosure = new boolean[tasks.length];
+        typeInClosure = new boolean[numOfResourceTypes];
+
+        holders = new int[numOfResourceTypes][];
+        numOfHolders = new int[numOfResourceTypes];
+        holderPosition = new int[tasks.length * numOfResourceTypes];
+        Arrays.fill(holderPosition, -1);
+        closureWaiters = new ArrayList<>(numOfResourceTypes);
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            holders[type] = new int[4];
+            closureWaiters.add(new ArrayList<>());
+        }
+        closureWaiterCursor = new int[numOfResourceTypes];
+        closureTypes = new int[numOfResourceTypes];
+        reducible = new ArrayList<>();
+        deadlocked = new Task[tasks.length];
+        abortSet = new int[tasks.length];
+        abortWork = new int[numOfResourceTypes];
+        abortFinished = new boolean[tasks.length];
+
+        for (int cell = 0; cell < allocation.length; cell++) {
+            updateHolders(cell / numOfResourceTypes, cell % numOfResourceTypes, cell);
+        }
+    }
+
+    /**
+     * get the messages reported during the run
+     */
+    public List<String> getMessages() { return messages; }
+
+    /**
+     * check if a Task's initiate Activity claim is safe, abort the Task if not safe
+     */
+    private void handleInitiate(Task t, int resourceType, int resourceClaim) {
+        if (resources[resourceType - 1] < resourceClaim) {
+            abortTask(t);
+
+            String claim = " (" + resourceClaim + ")";
+            String units = " (" + resources[resourceType - 1] + ")";
+            int id = t.getId();
+            String message = "\nBanker aborts task " + id + " before run begins; claim for resource " + resourceType + claim + " exceeds number of units present" + units;
+            messages.add(message);
+        }
+    }
+
+    /**
+     * activate a task
+     */
+    private void activateTask(Task t) {
+        if (t.getStatus() == Task.BLOCKED) {
+            numOfBlockedTasks--;
+        }
+        t.activate();
+    }
+
+    /**
+     * block a task
+     */
+    private void blockTask(Task t) {
+        t.block();
+
+        // add the task to the back of the wait list for the resource type it requested
+        blockOrder[t.getRow()] = numOfBlocks++;
+        waitLists.get(t.getProp1() - 1).add(t);
+
+        numOfBlockedTasks++;
+
+        if (detectingPartialDeadlock) {
+            newlyBlockedTasks.add(t);
+        }
+    }
+
+    /**
+     * terminate a task
+     */
+    private void terminateTask(Task t) {
+        t.terminate();
+        numOfTerminatedTasks++;
+        removeLiveRow(t.getRow());
+
+        if (avoidingDeadlock) {
+            // the safety check no longer has to find a way for this Task to finish
+            wakeAllTypes();
+        }
+    }
+
+    /**
+     * have the waiters on a resource type retried at the next serve; under the banker's algorithm resources
+     * of any type coming back can make any waiter's request safe, so every type's waiters are retried
+     */
+    private void wakeType(int type) {
+        if (avoidingDeadlock) {
+            wakeAllTypes();
+        } else {
+            wokenTypes[type] = true;
+        }
+    }
+
+    private void wakeAllTypes() {
+        Arrays.fill(wokenTypes, true);
+    }
+
+    /**
+     * abort a task and reclaim any resources it held
+     */
+    private void abortTask(Task t) {
+        if (t.getStatus() == Task.BLOCKED) {
+            waitLists.get(t.getProp1() - 1).remove(t);
+        }
+
+        t.abort();
+        numOfAborts++;
+        numOfTerminatedTasks++;
+        removeLiveRow(t.getRow());
+
+        if (avoidingDeadlock) {
+            // the safety check no longer has to find a way for this Task to finish, even if it held nothing
+            wakeAllTypes();
+        }
+
+        int base = t.getRow() * numOfResourceTypes;
+        for (int i = 0; i < numOfResourceTypes; i++) {
+            int held = allocation[base + i];
+            if (held > 0) {
+                resources[i] += held;
+                allocate(t, i, -held);
+                wakeType(i);
+            }
+        }
+    }
+
+    /**
+     * record a change in the amount of a resource type allocated to a Task, moving the Task's row
+     * within that type's need order to keep it sorted
+     */
+    private void allocate(Task t, int type, int quantity) {
+        if (quantity == 0) {
+            return;
+        }
+
+        int row = t.getRow();
+        int cell = row * numOfResourceTypes + type;
+        if (safetyCache != null) {
+            updateRowHash(row, type, need[cell], allocation[cell], need[cell] - quantity, allocation[cell] + quantity);
+        }
+        allocation[cell] += quantity;
+        need[cell] -= quantity;
+
+        if (holderPosition != null) {
+            updateHolders(row, type, cell);
+        }
+
+        if (needTree != null) {
+            // the need tree answers safety checks, so the need orders are not kept
+            if (needTree.contains(row)) {
+                needTree.remove(row);
+                needTree.insert(row, type, need[cell], allocation[cell]);
+            }
+            return;
+        }
+
+        int[] order = needOrder[type];
+        int[] position = needOrderPosition[type];
+        int pos = position[row];
+
+        // the need went down so move towards the front, or it went up so move towards the back
+        while (pos > 0 && need[order[pos - 1] * numOfResourceTypes + type] > need[cell]) {
+            order[pos] = order[pos - 1];
+            position[order[pos]] = pos;
+            pos--;
+        }
+        while (pos < order.length - 1 && need[order[pos + 1] * numOfResourceTypes + type] < need[cell]) {
+            order[pos] = order[pos + 1];
+            position[order[pos]] = pos;
+            pos++;
+        }
+        order[pos] = row;
+        position[row] = pos;
+    }
+
+    /**
+     * add a row to or remove it from the holders of a type when its allocation of the type starts or stops
+     * being positive
+     */
+    private void updateHolders(int row, int type, int cell) {
+        boolean holding = allocation[cell] > 0;
+        int pos = holderPosition[cell];
+        if (holding && pos < 0) {
+            if (numOfHolders[type] == holders[type].length) {
+                holders[type] = Arrays.copyOf(holders[type], 2 * numOfHolders[type]);
+            }
+            holders[type][numOfHolders[type]] = row;
+            holderPosition[cell] = numOfHolders[type]++;
+        } else if (!holding && pos >= 0) {
+            // move the last holder into the row's place
+            int last = holders[type][--numOfHolders[type]];
+            holders[type][pos] = last;
+            holderPosition[last * numOfResourceTypes + type] = pos;
+            holderPosition[cell] = -1;
+        }
+    }
+
+    /**
+     * update a row's fingerprint, and the live rows' fingerprint if the row's Task is live, for a cell change
+     */
+    private void updateRowHash(int row, int type, int oldNeed, int oldAllocation, int newNeed, int newAllocation) {
+        boolean live = tasks[row].getStatus() != Task.TERMINATED;
+        for (int lane = 0; lane < 2; lane++) {
+            if (live) {
+                liveRowsHash[lane] -= mix(rowHashes[lane][row] + lane);
+            }
+            rowHashes[lane][row] += cellHash(lane, type, newNeed, newAllocation) - cellHash(lane, type, oldNeed, oldAllocation);
+            if (live) {
+                liveRowsHash[lane] += mix(rowHashes[lane][row] + lane);
+            }
+        }
+    }
+
+    /**
+     * take the row of a Task that just terminated out of the live rows' fingerprint and the need tree
+     */
+    private void removeLiveRow(int row) {
+        if (needTree != null && needTree.contains(row)) {
+            needTree.remove(row);
+        }
+        if (safetyCache != null) {
+            for (int lane = 0; lane < 2; lane++) {
+                liveRowsHash[lane] -= mix(rowHashes[lane][row] + lane);
+            }
+        }
+    }
+
+    private static long cellHash(int lane, int type, int need, int allocation) {
+        long value = ((long) need << 32) ^ (allocation & 0xffffffffL);
+        return mix(mix(value + lane * 0x632be59bd9b4e019L) + type * 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * the finalizer of splitmix64
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * check if the current state is safe, counting the query and its verdict
+     */
+    private boolean safe() {
+        boolean safe = safetyCache == null ? runSafetyCheck() : lookUpSafety();
+        numOfSafetyQueries++;
+        if (!safe) {
+            numOfUnsafeVerdicts++;
+        }
+        return safe;
+    }
+
+    /**
+     * check if the current state is safe, answering from the cache of verdicts when it holds the state
+     */
+    private boolean lookUpSafety() {
+        probeKey.set(stateHash(0), stateHash(1));
+
+        Boolean verdict = safetyCache.get(probeKey);
+        if (verdict != null) {
+            safetyCacheHits++;
+            return verdict;
+        }
+        safetyCacheMisses++;
+        boolean safe = runSafetyCheck();
+        safetyCache.put(new StateKey(probeKey.hash0(), probeKey.hash1()), safe);
+        return safe;
+    }
+
+    /**
+     * the fingerprint of the available resources and the live rows in one lane
+     */
+    private long stateHash(int lane) {
+        long available = 0;
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            available += mix(resources[type] + type * 0x9e3779b97f4a7c15L + lane * 0x632be59bd9b4e019L);
+        }
+        return mix(mix(available) + liveRowsHash[lane]);
+    }
+
+    /**
+     * run a safety check, counting it and, if safety checks are timed, timing it
+     */
+    private boolean runSafetyCheck() {
+        numOfSafetyChecks++;
+        if (!timingSafetyChecks) {
+            return checkSafety();
+        }
+
+        long start = System.nanoTime();
+        boolean safe = checkSafety();
+        safetyCheckNanos += System.nanoTime() - start;
+        return safe;
+    }
+
+    /**
+     * for banker's algorithm; check if the current state is safe; verify that there exists some ordering of
+     * max-requests by the Tasks such that all Tasks will eventually terminate
+     *
+     * Any Task whose need fits in the available resources can be assumed to finish and return its allocation,
+     * and finishing a Task never makes another unable to, so the state is safe exactly when repeatedly finishing
+     * such Tasks finishes them all. For each resource type a cursor walks the Tasks in need order as the work
+     * vector grows; a Task is ready once every type's cursor has passed it. Each check is O(tasks * types).
+     * Large matrices are checked in parallel waves first. When every Task claims units of at most one type, the
+     * need tree answers for each type on its own in O(types).
+     */
+    private boolean checkSafety() {
+        if (needTree != null) {
+            for (int type = 0; type < numOfResourceTypes; type++) {
+                if (!needTree.fits(type, resources[type])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // the resources available throughout the safety check
+        System.arraycopy(resources, 0, work, 0, numOfResourceTypes);
+
+        int unfinished = 0;
+        for (int i = 0; i < tasks.length; i++) {
+            // Tasks that have terminated are left out of the check
+            finished[i] = tasks[i].getStatus() == Task.TERMINATED;
+            if (!finished[i]) {
+                unfinished++;
+            }
+        }
+
+        if ((long) tasks.length * numOfResourceTypes >= PARALLEL_SAFETY_CHECK_CELLS && PARALLELISM > 1) {
+            unfinished = finishInWaves(unfinished);
+            if (unfinished <= 0) {
+                return unfinished == 0;
+            }
+        }
+
+        Arrays.fill(satisfiedTypes, 0);
+        int numOfReadyTasks = 0;
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            needOrderCursor[type] = 0;
+            numOfReadyTasks = advanceNeedOrderCursor(type, numOfReadyTasks);
+        }
+
+        while (numOfReadyTasks > 0) {
+            // let a ready Task finish and return its allocation to the work vector
+            int row = readyTasks[--numOfReadyTasks];
+            finished[row] = true;
+            unfinished--;
+
+            int base = row * numOfResourceTypes;
+            for (int type = 0; type < numOfResourceTypes; type++) {
+                if (allocation[base + type] > 0) {
+                    work[type] += allocation[base + type];
+                    numOfReadyTasks = advanceNeedOrderCursor(type, numOfReadyTasks);
+                }
+            }
+        }
+
+        // the state is safe if every Task could finish
+        return unfinished == 0;
+    }
+
+    /**
+     * finish Tasks in waves: every unfinished Task whose need fits in the work vector is found in parallel, then
+     * their allocations are added to the work vector in parallel over the resource types. Waves go on while each
+     * finishes at least a fraction of the Tasks left, so that they cost O(tasks * types) in all; return the number
+     * of unfinished Tasks left for the serial check, or -1 if no Task can finish and the state is not safe
+     */
+    private int finishInWaves(int unfinished) {
+        int numOfCandidates = 0;
+        for (int row = 0; row < tasks.length; row++) {
+            if (!finished[row]) {
+                waveCandidates[numOfCandidates++] = row;
+            }
+        }
+
+        while (numOfCandidates > 0) {
+            ForkJoinPool.commonPool().invoke(new FindReadyRows(0, numOfCandidates));
+
+            int numOfReady = 0;
+            int numOfLeft = 0;
+            for (int i = 0; i < numOfCandidates; i++) {
+                int row = waveCandidates[i];
+                if (waveReady[i]) {
+                    readyTasks[numOfReady++] = row;
+                    finished[row] = true;
+                } else {
+                    waveCandidates[numOfLeft++] = row;
+                }
+            }
+
+            if (numOfReady == 0) {
+                return -1;
+            }
+            ForkJoinPool.commonPool().invoke(new MergeReadyRows(0, numOfResourceTypes, numOfReady));
+
+            unfinished -= numOfReady;
+            if (numOfReady * WAVE_FRACTION < numOfCandidates) {
+                break; // the waves have thinned out, so the serial check finishes faster
+            }
+            numOfCandidates = numOfLeft;
+        }
+        return unfinished;
+    }
+
+    /**
+     * determine if a Task row's need fits in the work vector, comparing blocks of types without branches so that
+     * the comparisons can be vectorized
+     */
+    private boolean needFits(int row) {
+        int base = row * numOfResourceTypes;
+        for (int start = 0; start < numOfResourceTypes; start += ROW_COMPARE_BLOCK) {
+            int end = Math.min(numOfResourceTypes, start + ROW_COMPARE_BLOCK);
+            int shortfall = 0;
+            for (int type = start; type < end; type++) {
+                shortfall |= work[type] - need[base + type];
+            }
+            if (shortfall < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * marks which of a range of the wave's candidate Tasks are ready to finish
+     */
+    private class FindReadyRows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        FindReadyRows(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) (to - from) * numOfResourceTypes <= PARALLEL_GRAIN_CELLS || to - from == 1) {
+                for (int i = from; i < to; i++) {
+                    waveReady[i] = needFits(waveCandidates[i]);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FindReadyRows(from, mid), new FindReadyRows(mid, to));
+            }
+        }
+    }
+
+    /**
+     * adds the allocations of the wave's ready Tasks to a range of types of the work vector
+     */
+    private class MergeReadyRows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int numOfReady;
+
+        MergeReadyRows(int from, int to, int numOfReady) {
+            this.from = from;
+            this.to = to;
+            this.numOfReady = numOfReady;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) (to - from) * numOfReady <= PARALLEL_GRAIN_CELLS || to - from == 1) {
+                for (int i = 0; i < numOfReady; i++) {
+                    int base = readyTasks[i] * numOfResourceTypes;
+                    for (int type = from; type < to; type++) {
+                        work[type] += allocation[base + type];
+                    }
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new MergeReadyRows(from, mid, numOfReady), new MergeReadyRows(mid, to, numOfReady));
+            }
+        }
+    }
+
+    /**
+     * move a resource type's cursor past every Task whose need of that type fits in the work vector, adding
+     * the Tasks whose needs of all types now fit to the ready stack; return the new size of the ready stack
+     */
+    private int advanceNeedOrderCursor(int type, int numOfReadyTasks) {
+        int[] order = needOrder[type];
+        int cursor = needOrderCursor[type];
+
+        while (cursor < order.length && need[order[cursor] * numOfResourceTypes + type] <= work[type]) {
+            int row = order[cursor];
+            satisfiedTypes[row]++;
+            if (satisfiedTypes[row] == numOfResourceTypes && !finished[row]) {
+                readyTasks[numOfReadyTasks++] = row;
+            }
+            cursor++;
+        }
+
+        needOrderCursor[type] = cursor;
+        return numOfReadyTasks;
+    }
+
+    /**
+     * reclaim all resources staged in the releasedResources array
+     */
+    private void reclaimReleasedResources() {
+        for (int i = 0; i < resources.length; i++) {
+            if (releasedResources[i] > 0) {
+                resources[i] += releasedResources[i];
+                releasedResources[i] = 0; // reset
+                wakeType(i);
+            }
+        }
+    }
+
+    /**
+     * Try to satisfy a task's request and return true if successful, false otherwise; when admitting in batches
+     * the request is added to the batch and its outcome applied when the batch is admitted
+     *
+     * @param resourceType the type of resource requested
+     * @param resourceQuantity the amount of a resource requested
+     * @param canDeadlock boolean to indicate if deadlock can occur
+     */
+    private boolean handleRequest(Task task, int resourceType, int resourceQuantity, boolean canDeadlock) {
+
+        if (!canDeadlock) {
+            // check that the request is valid given the initial claim
+            int maxRequest = need[task.getRow() * numOfResourceTypes + resourceType - 1];
+            if (resourceQuantity > maxRequest) {
+                admitBatch();
+                abortTask(task);
+
+                String cycle = cycleNum + "-" + (cycleNum + 1);
+                String message = "\nDuring cycle " + cycle + " of Banker's algorithm Task " + task.getId() + "'s request exceeds its claim; aborted;";
+                messages.add(message);
+
+                return false;
+            }
+        }
+
+        if (!canDeadlock && admittingInBatches) {
+            batchTasks[batchSize] = task;
+            batchTypes[batchSize] = resourceType - 1;
+            batchQuantities[batchSize] = resourceQuantity;
+            batchSize++;
+            return false;
+        }
+
+        if (resources[resourceType - 1] >= resourceQuantity) { // can satisfy optimistically
+            resources[resourceType - 1] -= resourceQuantity; // remove resources from manager
+            allocate(task, resourceType - 1, resourceQuantity); // add resources to task
+
+            if (!canDeadlock && !safe()) {
+                // request is not safe so rollback
+                resources[resourceType - 1] += resourceQuantity; // add resources from manager
+                allocate(task, resourceType - 1, -resourceQuantity); // remove resources from task
+
+                if (task.getStatus() == Task.ACTIVE) { blockTask(task); }
+                return false;
+            } else if (task.getStatus() == Task.BLOCKED) {
+                activateTask(task);
+            }
+
+            numOfGrants++;
+            return true;
+        } else { // cannot satisfy
+            if (task.getStatus() == Task.ACTIVE) { blockTask(task); }
+            return false;
+        }
+    }
+
+    /**
+     * allow a task to release resources and store them in the releasedResources array
+     */
+    private void handleRelease(Task task, int resourceType, int resourceQuantity) {
+        allocate(task, resourceType - 1, -resourceQuantity); // remove resources from the task
+        releasedResources[resourceType - 1] += resourceQuantity; // store the released resources
+    }
+
+    /**
+     * Try to satisfy the pending requests of any and all blocked tasks
+     *
+     * Only the waiters on woken resource types are retried, in the order they blocked; a request that failed
+     * cannot succeed until resources come back, and under the banker's algorithm until a Task terminates
+     *
+     * @param canDeadlock boolean to indicate if deadlock can occur
+     */
+    private void serveBlockedTasks(boolean canDeadlock) {
+        waitersToRetry.clear();
+        int numOfWokenLists = 0;
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            if (wokenTypes[type]) {
+                wokenTypes[type] = false; // reset
+                if (!waitLists.get(type).isEmpty()) {
+                    waitersToRetry.addAll(waitLists.get(type));
+                    numOfWokenLists++;
+                }
+            }
+        }
+
+        if (numOfWokenLists > 1) {
+            // merge the wait lists back into the order the tasks blocked in
+            waitersToRetry.sort(Comparator.comparingLong(t -> blockOrder[t.getRow()]));
+        }
+
+        for (Task task : waitersToRetry) {
+
+            // get data that represents the request
+            int resourceType = task.getProp1();
+            int resourceQuantity = task.getProp2();
+
+            if (resources[resourceType - 1] < resourceQuantity) {
+                continue; // not enough units to even try
+            }
+
+            // try the request
+            boolean success = handleRequest(task, resourceType, resourceQuantity, canDeadlock);
+
+            if (success) {
+                // the task is no longer waiting
+                waitLists.get(resourceType - 1).remove(task);
+            }
+        }
+        admitBatch();
+    }
+
+    /**
+     * grant the batch of requests that serving them one at a time would, with as few safety checks as possible
+     *
+     * Every request there are units for is granted tentatively, in order. Undoing a grant gives back as many
+     * units as it adds to the Task's need, so if the state after a run of grants is safe, the state after any
+     * shorter run is safe too, and each of those grants would have passed its own safety check. So one check
+     * admits a safe batch. Otherwise the first grant that made the state unsafe is found by binary search over
+     * the runs of grants; it is refused, the grants before it stand, and the rest of the batch is tried again.
+     */
+    private void admitBatch() {
+        int start = 0;
+        while (start < batchSize) {
+            int end = moveBatchEnd(start, batchSize);
+            if (safe()) {
+                resolveBatch(start, end);
+                break;
+            }
+
+            // the grants of [start, lo) leave the state safe and those of [start, hi) do not
+            int lo = start;
+            int hi = end;
+            while (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                end = moveBatchEnd(end, mid);
+                if (safe()) {
+                    lo = mid;
+                } else {
+                    hi = mid;
+                }
+            }
+
+            // the request at lo is not safe so rollback to before it
+            moveBatchEnd(end, lo);
+            resolveBatch(start, lo);
+            Task refused = batchTasks[lo];
+            if (refused.getStatus() == Task.ACTIVE) { blockTask(refused); }
+            start = lo + 1;
+        }
+        batchSize = 0;
+    }
+
+    /**
+     * change the end of the run of tentatively granted requests in the batch, undoing grants from the back
+     * or granting the requests there are units for from the front; return the new end
+     */
+    private int moveBatchEnd(int end, int newEnd) {
+        for (int i = end - 1; i >= newEnd; i--) {
+            if (batchGranted[i]) {
+                resources[batchTypes[i]] += batchQuantities[i];
+                allocate(batchTasks[i], batchTypes[i], -batchQuantities[i]);
+            }
+        }
+        for (int i = end; i < newEnd; i++) {
+            batchGranted[i] = resources[batchTypes[i]] >= batchQuantities[i];
+            if (batchGranted[i]) {
+                resources[batchTypes[i]] -= batchQuantities[i];
+                allocate(batchTasks[i], batchTypes[i], batchQuantities[i]);
+            }
+        }
+        return newEnd;
+    }
+
+    /**
+     * apply the outcome of the requests in part of the batch whose grants stand: a granted Task is activated and
+     * no longer waits, and a Task there were not enough units for is blocked
+     */
+    private void resolveBatch(int start, int end) {
+        for (int i = start; i < end; i++) {
+            Task task = batchTasks[i];
+            if (batchGranted[i]) {
+                numOfGrants++;
+                if (task.getStatus() == Task.BLOCKED) {
+                    activateTask(task);
+                    waitLists.get(batchTypes[i]).remove(task);
+                }
+            } else if (task.getStatus() == Task.ACTIVE) {
+                blockTask(task);
+            }
+        }
+    }
+
+    /**
+     * Serve an array of provided Tasks
+     *
+     * @param activeTasks an array of Tasks in the ACTIVE status
+     * @param canDeadlock boolean to indicate if deadlock can occur
+     */
+    private void serveActiveTasks(Task[] activeTasks, boolean canDeadlock) {
+        for (Task task : activeTasks) {
+            int resourceType = task.getProp1();
+            int resourceQuantity = task.getProp2();
+
+            switch (task.getOpcode()) {
+                case Activity.REQUEST: // try to satisfy the task's request
+                    handleRequest(task, resourceType, resourceQuantity, canDeadlock);
+                    break;
+                case Activity.RELEASE: // handle the task's release
+                    admitBatch();
+                    handleRelease(task, resourceType, resourceQuantity);
+                    break;
+                case Activity.TERMINATE:
+                    admitBatch();
+                    terminateTask(task);
+                    break;
+                case Activity.INITIATE:
+                    if (!canDeadlock) {
+                        // not allowed to ever deadlock so must check the initiate claim
+                        admitBatch();
+                        handleInitiate(task, resourceType, resourceQuantity);
+                    }
+                    break;
+            }
+        }
+        admitBatch();
+    }
+
+    /**
+     * build the pending-request index from the wait lists
+     */
+    private void indexPendingRequests() {
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            Task[] waiters = waitLists.get(type).toArray(new Task[0]);
+            Arrays.sort(waiters, Comparator.comparingInt(Task::getProp2));
+            waitersByQuantity[type] = waiters;
+            waitersByQuantityCursor[type] = 0;
+        }
+    }
+
+    /**
+     * determine if no pending requests can be satisfied; only the smallest pending request of each type
+     * has to be compared with the resources available
+     */
+    private boolean noPendingRequestsCanBeSatisfied() {
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            Task[] waiters = waitersByQuantity[type];
+            int cursor = waitersByQuantityCursor[type];
+            while (cursor < waiters.length && waiters[cursor].getStatus() != Task.BLOCKED) {
+                cursor++; // the waiter has been aborted
+            }
+            waitersByQuantityCursor[type] = cursor;
+
+            if (cursor < waiters.length && resources[type] >= waiters[cursor].getProp2()) {
+                // the pending request can be satisfied
+                return false;
+            }
+        }
+        // no pending requests can be satisfied
+        return true;
+    }
+
+    /**
+     * unlock a deadlocked state by aborting Tasks
+     */
+    private void handleDeadlock() {
+        if (detectingPartialDeadlock) {
+            for (Task task : newlyBlockedTasks) {
+                if (task.getStatus() == Task.BLOCKED) {
+                    handlePartialDeadlock(task);
+                }
+            }
+            newlyBlockedTasks.clear();
+        }
+
+        if (numOfBlockedTasks > 0 && numOfBlockedTasks == tasks.length - numOfTerminatedTasks) {
+            // the state is deadlocked
+            indexPendingRequests();
+
+            if (detectingPartialDeadlock && !noPendingRequestsCanBeSatisfied()) {
+                // a partial deadlock broken this cycle gave back enough for a waiter
+                return;
+            }
+
+            for (Task task : tasks) {
+                if (task.getStatus() == Task.BLOCKED) { // check to ignore terminated tasks
+
+                    abortTask(task);
+                    numOfBlockedTasks--;
+
+                    if (!noPendingRequestsCanBeSatisfied()) {
+                        // deadlock has been unlocked
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * find and break a deadlock that a newly blocked Task may have closed
+     *
+     * Only the Tasks the newly blocked Task waits for, directly or through other blocked Tasks, can be in such
+     * a deadlock: the live holders of the type it requested, the live holders of the types those of them that
+     * are blocked requested, and so on; the holders of each type are kept as allocations change, so finding the
+     * closure visits only its members. The closure is reduced as in deadlock detection, starting from the available
+     * units and those released earlier in the cycle; active Tasks are assumed to finish and release what they hold,
+     * as are blocked Tasks whose requests then fit. The blocked Tasks left are deadlocked, and a smallest set of
+     * them whose aborting lets the reduction finish the rest is aborted, the lowest numbered such set among those
+     * of its size. Finding it is exponential in the number of deadlocked Tasks, so after MAX_ABORT_SETS_TRIED sets
+     * the lowest numbered deadlocked Tasks are aborted instead, continuing the reduction after each abort, until
+     * the rest can proceed.
+     */
+    private void handlePartialDeadlock(Task newlyBlocked) {
+        List<Task> closure = getWaitForClosure(newlyBlocked);
+
+        // the blocked members of the closure by the type they requested, in order of the quantity requested
+        numOfClosureTypes = 0;
+        for (Task task : closure) {
+            if (task.getStatus() == Task.BLOCKED) {
+                int type = task.getProp1() - 1;
+                List<Task> waiters = closureWaiters.get(type);
+                if (waiters.isEmpty()) {
+                    closureTypes[numOfClosureTypes++] = type;
+                    closureWaiterCursor[type] = 0;
+                }
+                waiters.add(task);
+            } else {
+                reducible.add(task);
+            }
+        }
+        for (int i = 0; i < numOfClosureTypes; i++) {
+            closureWaiters.get(closureTypes[i]).sort(Comparator.comparingInt(Task::getProp2));
+        }
+
+        // the units released earlier in the cycle come back before the next cycle, so they count as available
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            work[type] = resources[type] + releasedResources[type];
+        }
+        advanceWaiterCursors();
+        reduce();
+
+        closure.sort(Comparator.comparingInt(Task::getId));
+        int numOfDeadlocked = 0;
+        for (Task task : closure) {
+            if (!finished[task.getRow()] && task.getStatus() == Task.BLOCKED) {
+                deadlocked[numOfDeadlocked++] = task;
+            }
+        }
+
+        int abortSetSize = numOfDeadlocked == 0 ? 0 : findSmallestAbortSet(numOfDeadlocked);
+        if (abortSetSize > 0) {
+            for (int i = 0; i < abortSetSize; i++) {
+                abortTask(deadlocked[abortSet[i]]);
+                numOfBlockedTasks--;
+            }
+            numOfDeadlocked = 0;
+        }
+
+        // without a smallest set, abort the deadlocked Tasks in id order until the reduction finishes every Task left
+        for (int i = 0; i < numOfDeadlocked; i++) {
+            Task task = deadlocked[i];
+            if (!finished[task.getRow()] && task.getStatus() == Task.BLOCKED) {
+                finished[task.getRow()] = true;
+                addAllocation(task.getRow(), work);
+
+                abortTask(task);
+                numOfBlockedTasks--;
+
+                advanceWaiterCursors();
+                reduce();
+            }
+        }
+
+        for (Task task : closure) {
+            inClosure[task.getRow()] = false;
+            finished[task.getRow()] = false;
+        }
+        for (int i = 0; i < numOfClosureTypes; i++) {
+            closureWaiters.get(closureTypes[i]).clear();
+        }
+    }
+
+    /**
+     * find a smallest set of the deadlocked Tasks whose aborting lets the others finish, trying the sets of each
+     * size in lexicographic order of their positions among the deadlocked Tasks; leave it in the first entries of
+     * abortSet and return its size, or 0 if MAX_ABORT_SETS_TRIED sets are tried without finding one
+     */
+    private int findSmallestAbortSet(int numOfDeadlocked) {
+        int tried = 0;
+        for (int size = 1; size <= numOfDeadlocked; size++) {
+            for (int i = 0; i < size; i++) {
+                abortSet[i] = i;
+            }
+            while (true) {
+                if (++tried > MAX_ABORT_SETS_TRIED) {
+                    return 0;
+                }
+                if (abortingLetsTheRestFinish(numOfDeadlocked, size)) {
+                    return size;
+                }
+
+                // move to the next set of the size
+                int i = size - 1;
+                while (i >= 0 && abortSet[i] == numOfDeadlocked - size + i) {
+                    i--;
+                }
+                if (i < 0) {
+                    break;
+                }
+                abortSet[i]++;
+                for (int j = i + 1; j < size; j++) {
+                    abortSet[j] = abortSet[j - 1] + 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * whether, once the deadlocked Tasks in the first entries of abortSet are aborted, the reduction of the
+     * other deadlocked Tasks from the work vector finishes them all
+     */
+    private boolean abortingLetsTheRestFinish(int numOfDeadlocked, int size) {
+        System.arraycopy(work, 0, abortWork, 0, numOfResourceTypes);
+        Arrays.fill(abortFinished, 0, numOfDeadlocked, false);
+        for (int i = 0; i < size; i++) {
+            abortFinished[abortSet[i]] = true;
+            addAllocation(deadlocked[abortSet[i]].getRow(), abortWork);
+        }
+
+        int unfinished = numOfDeadlocked - size;
+        boolean progress = true;
+        while (unfinished > 0 && progress) {
+            progress = false;
+            for (int i = 0; i < numOfDeadlocked; i++) {
+                Task task = deadlocked[i];
+                if (!abortFinished[i] && task.getProp2() <= abortWork[task.getProp1() - 1]) {
+                    abortFinished[i] = true;
+                    addAllocation(task.getRow(), abortWork);
+                    unfinished--;
+                    progress = true;
+                }
+            }
+        }
+        return unfinished == 0;
+    }
+
+    /**
+     * add a Task row's allocation to a work vector
+     */
+    private void addAllocation(int row, int[] vector) {
+        int base = row * numOfResourceTypes;
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            vector[type] += allocation[base + type];
+        }
+    }
+
+    /**
+     * get the live Tasks a blocked Task waits for, directly or through other blocked Tasks, including itself
+     */
+    private List<Task> getWaitForClosure(Task blocked) {
+        List<Task> closure = new ArrayList<>();
+        closure.add(blocked);
+        inClosure[blocked.getRow()] = true;
+
+        for (int i = 0; i < closure.size(); i++) {
+            Task member = closure.get(i);
+            if (member.getStatus() != Task.BLOCKED) {
+                continue; // an active Task waits for nothing
+            }
+
+            int type = member.getProp1() - 1;
+            if (typeInClosure[type]) {
+                continue;
+            }
+            typeInClosure[type] = true;
+
+            // add the holders of the requested type
+            for (int h = 0; h < numOfHolders[type]; h++) {
+                int row = holders[type][h];
+                if (!inClosure[row] && tasks[row].getStatus() != Task.TERMINATED) {
+                    inClosure[row] = true;
+                    closure.add(tasks[row]);
+                }
+            }
+        }
+
+        for (Task member : closure) {
+            if (member.getStatus() == Task.BLOCKED) {
+                typeInClosure[member.getProp1() - 1] = false;
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * let the ready Tasks of a closure finish and return their allocations to the work vector, readying
+     * the blocked Tasks whose requests then fit
+     */
+    private void reduce() {
+        while (!reducible.isEmpty()) {
+            Task task = reducible.remove(reducible.size() - 1);
+            finished[task.getRow()] = true;
+
+            int base = task.getRow() * numOfResourceTypes;
+            for (int type = 0; type < numOfResourceTypes; type++) {
+                if (allocation[base + type] > 0) {
+                    work[type] += allocation[base + type];
+                    if (!closureWaiters.get(type).isEmpty()) {
+                        advanceWaiterCursor(type);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * move the cursor of every type the closure's blocked Tasks requested past the waiters that now fit
+     */
+    private void advanceWaiterCursors() {
+        for (int i = 0; i < numOfClosureTypes; i++) {
+            advanceWaiterCursor(closureTypes[i]);
+        }
+    }
+
+    /**
+     * move a resource type's cursor past the waiters whose requests fit in the work vector, readying them
+     */
+    private void advanceWaiterCursor(int type) {
+        List<Task> waiters = closureWaiters.get(type);
+        int cursor = closureWaiterCursor[type];
+        while (cursor < waiters.size() && waiters.get(cursor).getProp2() <= work[type]) {
+            Task task = waiters.get(cursor);
+            if (!finished[task.getRow()]) {
+                reducible.add(task);
+            }
+            cursor++;
+        }
+        closureWaiterCursor[type] = cursor;
+    }
+
+    /**
+     * cause every Task to call their cycle method
+     */
+    private void cycleTasks() {
+        for (Task task : tasks) {
+            task.cycle();
+        }
+    }
+
+    /**
+     * get all Tasks with a status of ACTIVE
+     */
+    private Task[] getActiveTasks() {
+        int length = tasks.length - numOfBlockedTasks - numOfTerminatedTasks;
+        Task[] activeTasks = new Task[length];
+
+        int index = 0;
+        for (Task task : tasks) {
+            if (task.getStatus() == Task.ACTIVE) {
+                activeTasks[index] = task;
+                index++;
+            }
+        }
+
+        return activeTasks;
+    }
+
+    /**
+     * simulate a cycle of the Tasks being served by the engine
+     */
+    private void cycle(boolean canDeadlock) {
+        if (cycleStats != null) {
+            cycleStats.startCycle();
+        }
+
+        // get the active tasks before serving blocked tasks
+        Task[] activeTasks = getActiveTasks();
+        endPhase(CycleStats.GET_ACTIVE_TASKS);
+
+        // serve the blocked tasks
+        serveBlockedTasks(canDeadlock);
+        endPhase(CycleStats.SERVE_BLOCKED_TASKS);
+
+        // serve the active tasks
+        serveActiveTasks(activeTasks, canDeadlock);
+        endPhase(CycleStats.SERVE_ACTIVE_TASKS);
+
+        if (canDeadlock) {
+            // handle deadlock
+            handleDeadlock();
+        }
+        endPhase(CycleStats.HANDLE_DEADLOCK);
+
+        // reclaim released resources
+        reclaimReleasedResources();
+        endPhase(CycleStats.RECLAIM_RESOURCES);
+
+        // cycle each task
+        cycleTasks();
+        endPhase(CycleStats.CYCLE_TASKS);
+
+        if (cycleStats != null) {
+            cycleStats.endCycle(cycleNum, getCounters(), numOfBlockedTasks, resources);
+        }
 
-        for (Task task: tasks) {
-            if (task.getStatus() != Task.TERMINATED) {
-                // the Task has not yet terminated so add it to the queue
-                queue.add(task);
+        // increment the cycle number
+        cycleNum++;
+    }
+
+    /**
+     * mark the end of a phase of the cycle, if cycles are sampled
+     */
+    private void endPhase(int phase) {
+        if (cycleStats != null) {
+            cycleStats.endPhase(phase);
+        }
+    }
+
+    /**
+     * get the running totals of the run's counters, in the order of CycleStats.COUNTERS
+     */
+    private long[] getCounters() {
+        return new long[]{numOfSafetyQueries, numOfSafetyChecks, numOfUnsafeVerdicts, safetyCheckNanos,
+                numOfGrants, numOfBlocks, numOfAborts};
+    }
+
+    /**
+     * skip ahead over the cycles in which nothing but computing can happen
+     *
+     * While every active Task is in the middle of a compute Activity and no blocked Task is due to be retried,
+     * a cycle releases, grants and blocks nothing, so every cycle up to the one in which the first compute
+     * Activity finishes can be skipped by crediting each Task's time directly
+     */
+    private void skipComputeCycles() {
+        if (numOfBlockedTasks + numOfTerminatedTasks == tasks.length) {
+            return; // no Task is active
+        }
+
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            if (wokenTypes[type] && !waitLists.get(type).isEmpty()) {
+                return; // waiters will be retried
             }
         }
 
-        // keeps track of how many Tasks could not have their max-requests
-        // satisfied during an attempt at finding a safe ordering
-        int tries = 0;
+        int cycles = Integer.MAX_VALUE;
+        for (Task task : tasks) {
+            if (task.getStatus() == Task.ACTIVE) {
+                // leave the cycle in which the Task finishes computing to be simulated
+                cycles = Math.min(cycles, task.getComputeTimeLeft() - 1);
+                if (cycles <= 0) {
+                    return;
+                }
+            }
+        }
 
-        // try to find a safe ordering; if the queue size falls to zero then a safe ordering exists;
-        // if the number of tries rises to the queue size then a safe ordering does not exist
-        while (queue.size() > 0) {
-            // remove the next Task from the queue
-            Task task = queue.remove();
+        for (Task task : tasks) {
+            task.skip(cycles);
+        }
+        cycleNum += cycles;
+    }
+    /**
+     * build the allocation and need matrices, the need orders and the safety check's scratch buffers
+     * for the Tasks of a run
+     */
+    private void prepareMatrices() {
+        int numOfTasks = tasks.length;
+        allocation = new int[numOfTasks * numOfResourceTypes];
+        need = claims.clone();
+
+        needOrder = new int[numOfResourceTypes][];
+        needOrderPosition = new int[numOfResourceTypes][numOfTasks];
+        sortNeedOrders();
+
+        work = new int[numOfResourceTypes];
+        satisfiedTypes = new int[numOfTasks];
+        finished = new boolean[numOfTasks];
+        readyTasks = new int[numOfTasks];
+        needOrderCursor = new int[numOfResourceTypes];
+        waveCandidates = new int[numOfTasks];
+        waveReady = new boolean[numOfTasks];
+    }
 
-            // make an array maxRequests to store the max requests for each resource type
-            int[] initialClaims = task.getInitialClaims();
-            int[] taskResources = task.getResources();
-            int[] maxRequests = new int[initialClaims.length];
-            for (int i = 0; i < initialClaims.length; i++) {
-                maxRequests[i] = initialClaims[i] - taskResources[i];
+    /**
+     * sort the Task rows of each resource type by their need of that type
+     */
+    private void sortNeedOrders() {
+        int numOfTasks = tasks.length;
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            final int t = type;
+            needOrder[type] = IntStream.range(0, numOfTasks).boxed()
+                    .sorted(Comparator.comparingInt(row -> need[row * numOfResourceTypes + t]))
+                    .mapToInt(Integer::intValue).toArray();
+            for (int pos = 0; pos < numOfTasks; pos++) {
+                needOrderPosition[type][needOrder[type][pos]] = pos;
             }
+        }
+    }
 
-            // determine if all max-requests can be satisfied
-            boolean canSatisfy = true;
-            for (int i = 0; i < maxRequests.length; i++) {
-                if (dummyResources[i] < maxRequests[i]) {
-                    canSatisfy = false;
-                    break;
+    /**
+     * run the simulation of the engine's algorithm serving its Tasks until every Task has terminated
+     */
+    public void run() {
+        boolean canDeadlock = !avoidingDeadlock;
+        while (numOfTerminatedTasks < tasks.length) {
+            skipComputeCycles();
+            cycle(canDeadlock);
+        }
+    }
+}
+
+/**
+ * The CycleStats class keeps per-cycle samples of the counters and timers of a SimulationEngine in a ring buffer
+ * that holds the latest samples, to be written out as CSV or JSON after the run, and commits each sample as a
+ * JFR event while a flight recording has them enabled
+ *
+ * A sample is a row of longs: the cycle, the time spent in each phase of the cycle, what each counter grew by
+ * during the cycle, and the number of blocked Tasks and the units of each resource type available at its end.
+ * Cycles skipped while every active Task computes are not sampled.
+ */
+class CycleStats {
+
+    /**
+     * the phases of a cycle, in the order they run, and their names
+     */
+    static final int GET_ACTIVE_TASKS = 0;
+    static final int SERVE_BLOCKED_TASKS = 1;
+    static final int SERVE_ACTIVE_TASKS = 2;
+    static final int HANDLE_DEADLOCK = 3;
+    static final int RECLAIM_RESOURCES = 4;
+    static final int CYCLE_TASKS = 5;
+    private static final String[] PHASES = {"get_active_tasks", "serve_blocked_tasks", "serve_active_tasks",
+            "handle_deadlock", "reclaim_resources", "cycle_tasks"};
+
+    /**
+     * the names of the counters an engine keeps running totals of
+     */
+    private static final String[] COUNTERS = {"safety_queries", "safety_checks", "unsafe_verdicts",
+            "safety_check_nanos", "grants", "blocks", "aborts"};
+
+    /**
+     * where each part of a sample starts
+     */
+    private static final int PHASES_START = 1;
+    private static final int COUNTERS_START = PHASES_START + PHASES.length;
+    private static final int BLOCKED_TASKS = COUNTERS_START + COUNTERS.length;
+    private static final int AVAILABLE_START = BLOCKED_TASKS + 1;
+
+    /**
+     * the name of the run, the number of resource types, and the number of longs in a sample
+     */
+    private final String run;
+    private final int numOfResourceTypes;
+    private final int width;
+
+    /**
+     * the ring buffer of samples, the number of samples it holds at most, and the number ever taken
+     */
+    private final long[] samples;
+    private final int capacity;
+    private long numOfSamples;
+
+    /**
+     * the sample being taken, the counters at the end of the previous one, and when the current phase began
+     */
+    private final long[] sample;
+    private final long[] lastCounters = new long[COUNTERS.length];
+    private long phaseStart;
+
+    /**
+     * whether samples are committed as JFR events, and the event of the current cycle
+     */
+    private final boolean recordingEvents;
+    private CycleEvent event;
+
+    /**
+     * constructs a CycleStats for a named run on a number of resource types that keeps up to capacity samples
+     */
+    CycleStats(String run, int numOfResourceTypes, int capacity, boolean recordingEvents) {
+        this.run = run;
+        this.numOfResourceTypes = numOfResourceTypes;
+        this.capacity = capacity;
+        this.recordingEvents = recordingEvents;
+        width = AVAILABLE_START + numOfResourceTypes;
+        samples = new long[capacity * width];
+        sample = new long[width];
+    }
+
+    /**
+     * start taking the sample of a cycle
+     */
+    void startCycle() {
+        if (recordingEvents) {
+            event = new CycleEvent();
+            event.begin();
+        }
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * record the time taken by a phase of the cycle, which started when the previous phase ended
+     */
+    void endPhase(int phase) {
+        long now = System.nanoTime();
+        sample[PHASES_START + phase] = now - phaseStart;
+        phaseStart = now;
+    }
+
+    /**
+     * finish the sample of a cycle given the running totals of the engine's counters, its number of blocked
+     * Tasks and its available resources, and put it in the ring buffer
+     */
+    void endCycle(int cycle, long[] counters, int numOfBlockedTasks, int[] available) {
+        sample[0] = cycle;
+        for (int i = 0; i < COUNTERS.length; i++) {
+            sample[COUNTERS_START + i] = counters[i] - lastCounters[i];
+            lastCounters[i] = counters[i];
+        }
+        sample[BLOCKED_TASKS] = numOfBlockedTasks;
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            sample[AVAILABLE_START + type] = available[type];
+        }
+
+        int slot = (int) (numOfSamples % capacity);
+        System.arraycopy(sample, 0, samples, slot * width, width);
+        numOfSamples++;
+
+        if (recordingEvents && event.shouldCommit()) {
+            commitEvent();
+        }
+    }
+
+    /**
+     * fill in the event of the cycle from its sample and commit it
+     */
+    private void commitEvent() {
+        event.end();
+        event.run = run;
+        event.cycle = sample[0];
+        event.getActiveTasks = sample[PHASES_START + GET_ACTIVE_TASKS];
+        event.serveBlockedTasks = sample[PHASES_START + SERVE_BLOCKED_TASKS];
+        event.serveActiveTasks = sample[PHASES_START + SERVE_ACTIVE_TASKS];
+        event.handleDeadlock = sample[PHASES_START + HANDLE_DEADLOCK];
+        event.reclaimResources = sample[PHASES_START + RECLAIM_RESOURCES];
+        event.cycleTasks = sample[PHASES_START + CYCLE_TASKS];
+        event.safetyQueries = sample[COUNTERS_START];
+        event.safetyChecks = sample[COUNTERS_START + 1];
+        event.unsafeVerdicts = sample[COUNTERS_START + 2];
+        event.safetyCheckTime = sample[COUNTERS_START + 3];
+        event.grants = sample[COUNTERS_START + 4];
+        event.blocks = sample[COUNTERS_START + 5];
+        event.aborts = sample[COUNTERS_START + 6];
+        event.blockedTasks = sample[BLOCKED_TASKS];
+
+        StringJoiner available = new StringJoiner(" ");
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            available.add(String.valueOf(sample[AVAILABLE_START + type]));
+        }
+        event.available = available.toString();
+        event.commit();
+    }
+
+    /**
+     * write the samples of runs as CSV, one line per sample after a header line, oldest first within each run
+     */
+    static void writeCsv(List<CycleStats> runs, Appendable out) throws IOException {
+        out.append("run,cycle");
+        for (String phase : PHASES) {
+            out.append(',').append(phase).append("_nanos");
+        }
+        for (String counter : COUNTERS) {
+            out.append(',').append(counter);
+        }
+        out.append(",blocked_tasks");
+        for (int type = 0; type < runs.get(0).numOfResourceTypes; type++) {
+            out.append(",available_").append(String.valueOf(type + 1));
+        }
+        out.append('\n');
+
+        for (CycleStats stats : runs) {
+            for (long n = Math.max(0, stats.numOfSamples - stats.capacity); n < stats.numOfSamples; n++) {
+                int base = (int) (n % stats.capacity) * stats.width;
+                out.append(stats.run);
+                for (int i = 0; i < stats.width; i++) {
+                    out.append(',').append(String.valueOf(stats.samples[base + i]));
                 }
+                out.append('\n');
             }
+        }
+    }
 
-            if (canSatisfy) {
-                // add the Task's resources to the dummyResources as if the Task had terminated
-                for (int i = 0; i < maxRequests.length; i++) {
-                    dummyResources[i] += taskResources[i];
+    /**
+     * write the samples of runs as a JSON array of objects, one per sample, oldest first within each run
+     */
+    static void writeJson(List<CycleStats> runs, Appendable out) throws IOException {
+        out.append('[');
+        String separator = "\n";
+        for (CycleStats stats : runs) {
+            for (long n = Math.max(0, stats.numOfSamples - stats.capacity); n < stats.numOfSamples; n++) {
+                int base = (int) (n % stats.capacity) * stats.width;
+                out.append(separator).append("{\"run\":\"").append(stats.run).append("\",\"cycle\":")
+                        .append(String.valueOf(stats.samples[base]));
+                for (int i = 0; i < PHASES.length; i++) {
+                    out.append(",\"").append(PHASES[i]).append("_nanos\":")
+                            .append(String.valueOf(stats.samples[base + PHASES_START + i]));
                 }
-                // reset tries
-                tries = 0;
+                for (int i = 0; i < COUNTERS.length; i++) {
+                    out.append(",\"").append(COUNTERS[i]).append("\":")
+                            .append(String.valueOf(stats.samples[base + COUNTERS_START + i]));
+                }
+                out.append(",\"blocked_tasks\":").append(String.valueOf(stats.samples[base + BLOCKED_TASKS]));
+                out.append(",\"available\":[");
+                for (int type = 0; type < stats.numOfResourceTypes; type++) {
+                    out.append(type == 0 ? "" : ",").append(String.valueOf(stats.samples[base + AVAILABLE_START + type]));
+                }
+                out.append("]}");
+                separator = ",\n";
+            }
+        }
+        out.append("\n]\n");
+    }
+}
+
+/**
+ * The CycleEvent class is the JFR event of one sampled cycle of a SimulationEngine; its duration is the cycle's
+ */
+@Name("banker.Cycle")
+@Label("Resource Manager Cycle")
+@Category("Banker")
+@Description("A cycle of a simulation: the time spent in each phase, what each counter grew by, and the state at its end")
+class CycleEvent extends Event {
+
+    @Label("Run")
+    String run;
+
+    @Label("Cycle")
+    long cycle;
+
+    @Label("Get Active Tasks")
+    @Timespan(Timespan.NANOSECONDS)
+    long getActiveTasks;
+
+    @Label("Serve Blocked Tasks")
+    @Timespan(Timespan.NANOSECONDS)
+    long serveBlockedTasks;
+
+    @Label("Serve Active Tasks")
+    @Timespan(Timespan.NANOSECONDS)
+    long serveActiveTasks;
+
+    @Label("Handle Deadlock")
+    @Timespan(Timespan.NANOSECONDS)
+    long handleDeadlock;
+
+    @Label("Reclaim Resources")
+    @Timespan(Timespan.NANOSECONDS)
+    long reclaimResources;
+
+    @Label("Cycle Tasks")
+    @Timespan(Timespan.NANOSECONDS)
+    long cycleTasks;
+
+    @Label("Safety Queries")
+    long safetyQueries;
+
+    @Label("Safety Checks")
+    long safetyChecks;
+
+    @Label("Unsafe Verdicts")
+    long unsafeVerdicts;
+
+    @Label("Safety Check Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long safetyCheckTime;
+
+    @Label("Grants")
+    long grants;
+
+    @Label("Blocks")
+    long blocks;
+
+    @Label("Aborts")
+    long aborts;
+
+    @Label("Blocked Tasks")
+    long blockedTasks;
+
+    @Label("Available Units")
+    String available;
+}
+
+/**
+ * The ThreadedEngine class runs every Task's Activities on a thread of its own against a shared BankersAllocator,
+ * avoiding deadlock with the banker's algorithm or optimistically, instead of simulating the Tasks in lockstep
+ *
+ * Every Activity takes a tick of real time, a compute Activity one tick per cycle, and a Task's waits for its
+ * requests are timed and counted in ticks, so that the results read like the cycles of a simulation. Terminate
+ * takes no time and gives back whatever the Task still holds. The optimistic algorithm breaks a deadlock once
+ * every live Task has been waiting on a request there are not enough units for over a number of ticks without
+ * any Task making progress, by aborting the lowest numbered waiting Task. Tasks run on virtual threads where the
+ * Java runtime has them and on platform threads otherwise.
+ */
+class ThreadedEngine implements Engine {
+
+    /**
+     * the number of ticks a deadlock must last before a Task is aborted to break it
+     */
+    private static final int DEADLOCK_TICKS = 10;
+
+    /**
+     * the factory method for virtual threads, if the Java runtime has them
+     */
+    private static final Method UNSTARTED_VIRTUAL_THREAD;
+    private static final Object VIRTUAL_THREAD_BUILDER;
+    static {
+        Method unstarted = null;
+        Object builder = null;
+        try {
+            builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException ex) {
+            // no virtual threads, so Tasks run on platform threads
+        }
+        UNSTARTED_VIRTUAL_THREAD = unstarted;
+        VIRTUAL_THREAD_BUILDER = builder;
+    }
+
+    /**
+     * the resources and Tasks of the run, the claim matrix, the algorithm and the length of a tick
+     */
+    private int[] resources;
+    private Task[] tasks;
+    private int[] claims;
+    private int numOfResourceTypes;
+    private boolean canDeadlock;
+    private long tickNanos;
+
+    /**
+     * the allocator the Tasks share and each Task's client of it
+     */
+    private BankersAllocator allocator;
+    private BankersAllocator.Client[] clients;
+
+    /**
+     * for each Task, the type and quantity of the request it waits on, with a type of -1 while it is not waiting,
+     * whether it is done, and the number of Activities every Task has finished
+     */
+    private AtomicIntegerArray waitingType;
+    private AtomicIntegerArray waitingQuantity;
+    private AtomicIntegerArray done;
+    private AtomicLong progress = new AtomicLong();
+
+    /**
+     * the time in ticks each Task spent active and blocked, and whether it was aborted; each is written by
+     * the Task's own thread and read once the thread has finished
+     */
+    private int[] activeTimes;
+    private int[] blockedTimes;
+    private boolean[] aborted;
+
+    /**
+     * the messages the run reports, with the cycle and Task id they are ordered by
+     */
+    private final List<long[]> messageOrder = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> messageTexts = Collections.synchronizedList(new ArrayList<>());
+    private List<String> messages = new ArrayList<>();
+
+    /**
+     * constructs an engine that runs the optimistic algorithm if deadlock can occur, or the banker's algorithm
+     * if not, on given resources and Tasks with the given claim matrix and ticks of the given length
+     */
+    ThreadedEngine(int[] resources, Task[] tasks, int[] claims, boolean canDeadlock, long tickNanos) {
+        this.resources = resources;
+        this.tasks = tasks;
+        this.claims = claims;
+        this.canDeadlock = canDeadlock;
+        this.tickNanos = tickNanos;
+        numOfResourceTypes = resources.length;
+
+        clients = new BankersAllocator.Client[tasks.length];
+        waitingType = new AtomicIntegerArray(tasks.length);
+        waitingQuantity = new AtomicIntegerArray(tasks.length);
+        done = new AtomicIntegerArray(tasks.length);
+        activeTimes = new int[tasks.length];
+        blockedTimes = new int[tasks.length];
+        aborted = new boolean[tasks.length];
+    }
+
+    /**
+     * get the messages reported during the run
+     */
+    public List<String> getMessages() { return messages; }
+
+    /**
+     * run every Task on its own thread until all of them have terminated or been aborted
+     */
+    public void run() {
+        allocator = new BankersAllocator(resources, !canDeadlock);
+
+        // every claim is declared before any Task starts so that the banker's algorithm knows all of them
+        for (int row = 0; row < tasks.length; row++) {
+            int[] claim = Arrays.copyOfRange(claims, row * numOfResourceTypes, (row + 1) * numOfResourceTypes);
+            try {
+                clients[row] = allocator.declareClaim(claim);
+            } catch (IllegalArgumentException ex) {
+                abortBeforeRun(row, claim);
+            }
+        }
+
+        Thread[] threads = new Thread[tasks.length];
+        for (int row = 0; row < tasks.length; row++) {
+            waitingType.set(row, -1);
+            if (clients[row] != null) {
+                final int r = row;
+                threads[row] = newThread(() -> runTask(r));
+                threads[row].start();
             } else {
-                // the Task could not be satisfied so add it back into the queue
-                queue.add(task);
-                tries++;
-                if (tries >= queue.size()) {
-                    // all available Tasks were tried so a safe ordering does not exist
-                    return false;
+                done.set(row, 1);
+            }
+        }
+
+        try {
+            if (canDeadlock) {
+                breakDeadlocksUntilDone(threads);
+            }
+            for (Thread thread : threads) {
+                if (thread != null) {
+                    thread.join();
                 }
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running Tasks", ex);
         }
 
-        // the queue size fell to zero so a safe ordering does exist
-        return true;
+        for (int row = 0; row < tasks.length; row++) {
+            tasks[row].recordTime(activeTimes[row], blockedTimes[row]);
+            if (aborted[row]) {
+                tasks[row].abort();
+            } else {
+                tasks[row].terminate();
+            }
+        }
+
+        // order the messages by the cycle they were reported in, then by Task id
+        Integer[] order = new Integer[messageTexts.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> messageOrder.get(i)[0])
+                .thenComparingLong(i -> messageOrder.get(i)[1]));
+        for (int i : order) {
+            messages.add(messageTexts.get(i));
+        }
     }
 
     /**
-     * reclaim all resources staged in the releasedResources array
+     * abort a Task whose claim exceeds the units of a resource type before any Task runs
      */
-    private void reclaimReleasedResources() {
-        for (int i = 0; i < resources.length; i++) {
-            resources[i] += releasedResources[i];
-            releasedResources[i] = 0; // reset
+    private void abortBeforeRun(int row, int[] claim) {
+        aborted[row] = true;
+        for (int type = 0; type < numOfResourceTypes; type++) {
+            if (claim[type] > resources[type]) {
+                String message = "\nBanker aborts task " + tasks[row].getId() + " before run begins; claim for resource "
+                        + (type + 1) + " (" + claim[type] + ") exceeds number of units present (" + resources[type] + ")";
+                report(-1, row, message);
+            }
+        }
+    }
+
+    private void report(long cycle, int row, String message) {
+        synchronized (messageTexts) {
+            messageOrder.add(new long[]{cycle, row});
+            messageTexts.add(message);
         }
     }
 
     /**
-     * Try to satisfy a task's request and return true if successful, false otherwise
-     *
-     * @param resourceType the type of resource requested
-     * @param resourceQuantity the amount of a resource requested
-     * @param canDeadlock boolean to indicate if deadlock can occur
+     * run the Activities of a Task on the current thread
      */
-    private boolean handleRequest(Task task, int resourceType, int resourceQuantity, boolean canDeadlock) {
+    private void runTask(int row) {
+        Task task = tasks[row];
+        BankersAllocator.Client client = clients[row];
+        int activeTime = 0;
+        int blockedTime = 0;
 
-        if (!canDeadlock) {
-            // check that the request is valid given the initial claim
-            int maxRequest = task.getInitialClaims()[resourceType - 1] - task.getResources()[resourceType - 1];
-            if (resourceQuantity > maxRequest) {
-                abortTask(task);
+        try {
+            for (int pc = 0; pc < task.getNumOfActivities(); pc++) {
+                int type = task.getProp1(pc) - 1;
+                int quantity = task.getProp2(pc);
+                int ticks = 1;
+
+                switch (task.getOpcode(pc)) {
+                    case Activity.REQUEST:
+                        if (!allocator.tryAcquire(client, type, quantity)) {
+                            blockedTime += waitFor(row, client, type, quantity);
+                        }
+                        break;
+                    case Activity.RELEASE:
+                        allocator.release(client, type, quantity);
+                        break;
+                    case Activity.TERMINATE:
+                        // the Task is done
+                        ticks = 0;
+                        pc = task.getNumOfActivities();
+                        break;
+                    case Activity.COMPUTE:
+                        ticks = Math.max(1, task.getProp1(pc));
+                        break;
+                }
 
-                String cycle = cycleNum + "-" + (cycleNum + 1);
-                String message = "\nDuring cycle " + cycle + " of Banker's algorithm Task " + task.getId() + "'s request exceeds its claim; aborted;";
-                System.out.println(message);
+                progress.incrementAndGet();
+                activeTime += ticks;
+                TimeUnit.NANOSECONDS.sleep(ticks * tickNanos);
+            }
+        } catch (IllegalArgumentException ex) {
+            // the request exceeds the Task's claim
+            aborted[row] = true;
+            int cycle = activeTime + blockedTime;
+            String message = "\nDuring cycle " + cycle + "-" + (cycle + 1) + " of Banker's algorithm Task " + task.getId()
+                    + "'s request exceeds its claim; aborted;";
+            report(cycle, row, message);
+        } catch (InterruptedException ex) {
+            // aborted to break a deadlock
+            aborted[row] = true;
+        } finally {
+            allocator.retire(client);
+            activeTimes[row] = activeTime;
+            blockedTimes[row] = blockedTime;
+            done.set(row, 1);
+        }
+    }
+
+    /**
+     * wait until a request is granted and return the number of ticks waited
+     */
+    private int waitFor(int row, BankersAllocator.Client client, int type, int quantity) throws InterruptedException {
+        waitingQuantity.set(row, quantity);
+        waitingType.set(row, type);
+
+        long start = System.nanoTime();
+        while (!allocator.acquire(client, type, quantity, tickNanos, TimeUnit.NANOSECONDS)) {
+            // keep waiting
+        }
+        waitingType.set(row, -1);
+
+        return (int) Math.round((System.nanoTime() - start) / (double) tickNanos);
+    }
+
+    /**
+     * watch the Tasks until all are done, aborting the lowest numbered waiting Task whenever a deadlock lasts
+     */
+    private void breakDeadlocksUntilDone(Thread[] threads) throws InterruptedException {
+        long interval = DEADLOCK_TICKS * tickNanos;
+        while (!allDone()) {
+            long seen = progress.get();
+            boolean deadlocked = deadlocked();
+            TimeUnit.NANOSECONDS.sleep(interval);
 
-                return false;
+            if (deadlocked && progress.get() == seen && deadlocked()) {
+                for (int row = 0; row < tasks.length; row++) {
+                    if (done.get(row) == 0 && waitingType.get(row) >= 0) {
+                        threads[row].interrupt();
+                        threads[row].join();
+                        break;
+                    }
+                }
             }
         }
+    }
 
-        if (resources[resourceType - 1] >= resourceQuantity) { // can satisfy optimistically
-            resources[resourceType - 1] -= resourceQuantity; // remove resources from manager
-            task.addResources(resourceType, resourceQuantity); // add resources to task
-
-            if (!canDeadlock && !safe()) {
-                // request is not safe so rollback
-                resources[resourceType - 1] += resourceQuantity; // add resources from manager
-                task.removeResources(resourceType, resourceQuantity); // remove resources from task
-
-                if (task.getStatus() == Task.ACTIVE) { blockTask(task); }
+    private boolean allDone() {
+        for (int row = 0; row < tasks.length; row++) {
+            if (done.get(row) == 0) {
                 return false;
-            } else if (task.getStatus() == Task.BLOCKED) {
-                activateTask(task);
             }
+        }
+        return true;
+    }
 
-            return true;
-        } else { // cannot satisfy
-            if (task.getStatus() == Task.ACTIVE) { blockTask(task); }
-            return false;
+    /**
+     * determine if every live Task waits on a request there are not enough units for
+     */
+    private boolean deadlocked() {
+        boolean anyLive = false;
+        for (int row = 0; row < tasks.length; row++) {
+            if (done.get(row) == 0) {
+                anyLive = true;
+                int type = waitingType.get(row);
+                if (type < 0 || allocator.getAvailable(type) >= waitingQuantity.get(row)) {
+                    return false;
+                }
+            }
         }
+        return anyLive;
     }
 
     /**
-     * allow a task to release resources and store them in the releasedResources array
+     * get an unstarted virtual thread for a Task if the Java runtime has them, or a platform thread otherwise
      */
-    private void handleRelease(Task task, int resourceType, int resourceQuantity) {
-        task.removeResources(resourceType, resourceQuantity); // remove resources from the task
-        releasedResources[resourceType - 1] += resourceQuantity; // store the released resources
+    private static Thread newThread(Runnable runnable) {
+        if (UNSTARTED_VIRTUAL_THREAD != null) {
+            try {
+                return (Thread) UNSTARTED_VIRTUAL_THREAD.invoke(VIRTUAL_THREAD_BUILDER, runnable);
+            } catch (ReflectiveOperationException ex) {
+                // fall back to a platform thread
+            }
+        }
+        return new Thread(runnable);
     }
+}
+
+/**
+ * The ResourceManager class represents a resource manager that can simulate
+ * optimistic and banker resource management algorithms on a set of Tasks
+ */
+class ResourceManager {
 
     /**
-     * Try to satisfy the pending requests of any and all blocked tasks
-     *
-     * @param canDeadlock boolean to indicate if deadlock can occur
+     * the number of resource types, and the claim matrix built from the initiate Activities, which is the
+     * same for both simulations
      */
-    private void serveBlockedTasks(boolean canDeadlock) {
-        // get the current size of the blockedTaskQueue because it may change over time
-        int initialSizeOfQueue = blockedTaskQueue.size();
+    private int numOfResourceTypes;
+    private int[] claims;
 
-        for (int i = 0; i < initialSizeOfQueue; i++) {
+    /**
+     * whether the optimistic simulation breaks deadlocks among a subset of the Tasks as soon as they form
+     */
+    private boolean detectingPartialDeadlock;
 
-            // get the next blocked Task from the queue
-            Task task = blockedTaskQueue.remove();
+    /**
+     * whether the banker simulation admits the requests served one after another as a batch
+     */
+    private boolean admittingInBatches;
 
-            if (task.getStatus() == Task.BLOCKED) { // check here because reactivated tasks don't get auto removed
+    /**
+     * the number of safety check verdicts the banker simulation keeps, or 0 to keep none
+     */
+    private int safetyCacheCapacity;
 
-                // get data that represents the request
-                Activity activity = task.getNextActivity();
-                int resourceType = activity.getProp1();
-                int resourceQuantity = activity.getProp2();
+    /**
+     * the length of a tick in nanoseconds when every Task runs on its own thread, or 0 to simulate the
+     * Tasks in lockstep
+     */
+    private long tickNanos;
 
-                // try the request
-                boolean success = handleRequest(task, resourceType, resourceQuantity, canDeadlock);
+    /**
+     * the file the per-cycle samples of the simulations are written to, or null to write none; the number of
+     * cycles sampled last that are kept; and whether the samples are committed as JFR events
+     */
+    private String statsFileName;
+    private int statsCapacity = 4096;
+    private boolean recordingEvents;
 
-                if (!success) {
-                    // could not satisfy the request so add it back into the queue
-                    blockedTaskQueue.add(task);
-                }
-            }
-        }
-    }
+    /**
+     * the per-cycle samples of each simulation, if they are taken
+     */
+    private List<CycleStats> cycleStats = new ArrayList<>();
 
     /**
-     * Serve an array of provided Tasks
-     *
-     * @param activeTasks an array of Tasks in the ACTIVE status
-     * @param canDeadlock boolean to indicate if deadlock can occur
+     * the resources and Tasks to be used during simulation of the optimistic algorithm
      */
-    private void serveActiveTasks(Task[] activeTasks, boolean canDeadlock) {
-        for (Task task : activeTasks) {
-            Activity activity = task.getNextActivity();
-            String activityType = activity.getType();
+    private int[] optimisticResources;
+    private Task[] optimisticTasks;
 
-            int resourceType = activity.getProp1();
-            int resourceQuantity = activity.getProp2();
+    /**
+     * the resources and Tasks to be used during simulation of the banker algorithm
+     */
+    private int[] bankerResources;
+    private Task[] bankerTasks;
 
-            switch (activityType) {
-                case Activity.REQUEST: // try to satisfy the task's request
-                    handleRequest(task, resourceType, resourceQuantity, canDeadlock);
-                    break;
-                case Activity.RELEASE: // handle the task's release
-                    handleRelease(task, resourceType, resourceQuantity);
-                    break;
-                case Activity.TERMINATE:
-                    terminateTask(task);
-                    break;
-                case Activity.INITIATE:
-                    if (!canDeadlock) {
-                        // not allowed to ever deadlock so must check the initiate claim
-                        handleInitiate(task, resourceType, resourceQuantity);
-                    }
-                    break;
-            }
-        }
+    /**
+     * constructs a ResourceManager with given resources and separate Tasks for optimistic and banker simulations
+     */
+    ResourceManager(int[] resources, Task[] optimisticTasks, Task[] bankerTasks) {
+        this.optimisticResources = resources.clone();
+        this.optimisticTasks = optimisticTasks;
+
+        this.bankerResources = resources.clone();
+        this.bankerTasks = bankerTasks;
+
+        numOfResourceTypes = resources.length;
+        claims = getClaimsFromInitiateActivities(optimisticTasks);
     }
 
     /**
-     * determine if no pending requests can be satisfied
+     * build the claim matrix from the initiate Activities of each Task
      */
-    private boolean noPendingRequestsCanBeSatisfied() {
+    private int[] getClaimsFromInitiateActivities(Task[] tasks) {
+        int[] claims = new int[tasks.length * numOfResourceTypes];
         for (Task task : tasks) {
-            if (task.getStatus() == Task.BLOCKED) {
-
-                // get data the represents the request
-                Activity activity = task.getNextActivity();
-                int resourceType = activity.getProp1();
-                int resourceQuantity = activity.getProp2();
-
-                if (resources[resourceType - 1] >= resourceQuantity) {
-                    // the pending request can be satisfied
-                    return false;
+            for (int i = 0; i < task.getNumOfActivities(); i++) {
+                if (task.getOpcode(i) == Activity.INITIATE) {
+                    claims[task.getRow() * numOfResourceTypes + task.getProp1(i) - 1] = task.getProp2(i);
                 }
             }
         }
-        // no pending requests can be satisfied
-        return true;
+        return claims;
     }
 
     /**
-     * unlock a deadlocked state by aborting Tasks
+     * return true if every Task claims units of at most one resource type, as every Task does when there is one
+     * type, so that the safety of each type can be checked on its own
      */
-    private void handleDeadlock() {
-        if (numOfBlockedTasks > 0 && numOfBlockedTasks == tasks.length - numOfTerminatedTasks) {
-            // the state is deadlocked
-
-            for (Task task : tasks) {
-                if (task.getStatus() == Task.BLOCKED) { // check to ignore terminated tasks
-
-                    abortTask(task);
-                    numOfBlockedTasks--;
-
-                    if (!noPendingRequestsCanBeSatisfied()) {
-                        // deadlock has been unlocked
-                        break;
-                    }
+    private boolean claimsAreIndependent() {
+        for (int row = 0; row < bankerTasks.length; row++) {
+            int claimedTypes = 0;
+            for (int type = 0; type < numOfResourceTypes; type++) {
+                if (claims[row * numOfResourceTypes + type] > 0) {
+                    claimedTypes++;
                 }
             }
+            if (claimedTypes > 1) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
-     * cause every Task to call their cycle method
+     * have the optimistic simulation break deadlocks among a subset of the Tasks as soon as they form, instead
+     * of waiting until every Task is blocked
      */
-    private void cycleTasks() {
-        for (Task task : tasks) {
-            task.cycle();
-        }
+    void setDetectingPartialDeadlock(boolean detectingPartialDeadlock) {
+        this.detectingPartialDeadlock = detectingPartialDeadlock;
     }
 
     /**
-     * get all Tasks with a status of ACTIVE
+     * have the banker simulation admit the requests served one after another as a batch with one safety check
      */
-    private Task[] getActiveTasks() {
-        int length = tasks.length - numOfBlockedTasks - numOfTerminatedTasks;
-        Task[] activeTasks = new Task[length];
-
-        int index = 0;
-        for (Task task : tasks) {
-            if (task.getStatus() == Task.ACTIVE) {
-                activeTasks[index] = task;
-                index++;
-            }
-        }
-
-        return activeTasks;
+    void setAdmittingInBatches(boolean admittingInBatches) {
+        this.admittingInBatches = admittingInBatches;
     }
 
     /**
-     * simulate a cycle of the Tasks being served by the ResourceManager
+     * have the banker simulation keep the verdicts of up to the given number of safety checks
      */
-    private void cycle(boolean canDeadlock) {
-        // get the active tasks before serving blocked tasks
-        Task[] activeTasks = getActiveTasks();
-
-        // serve the blocked tasks
-        serveBlockedTasks(canDeadlock);
-
-        // serve the active tasks
-        serveActiveTasks(activeTasks, canDeadlock);
-
-        if (canDeadlock) {
-            // handle deadlock
-            handleDeadlock();
-        }
-
-        // reclaim released resources
-        reclaimReleasedResources();
+    void setSafetyCacheCapacity(int safetyCacheCapacity) {
+        this.safetyCacheCapacity = safetyCacheCapacity;
+    }
 
-        // cycle each task
-        cycleTasks();
+    /**
+     * have every Task run on its own thread against a shared allocator, with ticks of the given length,
+     * instead of simulating the Tasks in lockstep
+     */
+    void setThreaded(long tickNanos) {
+        this.tickNanos = tickNanos;
+    }
 
-        // increment the cycle number
-        cycleNum++;
+    /**
+     * have the counters and timers of each simulation sampled every cycle and written to a file, as JSON if
+     * its name ends in .json and as CSV otherwise
+     */
+    void setStatsFileName(String statsFileName) {
+        this.statsFileName = statsFileName;
     }
 
     /**
-     * prepare the ResourceManager's data for a simulation run
+     * have only the samples of the given number of cycles simulated last kept for the statistics file
      */
-    private void prepareRun(int[] resources, Task[] tasks) {
-        this.resources = resources;
-        this.tasks = tasks;
+    void setStatsCapacity(int statsCapacity) {
+        this.statsCapacity = statsCapacity;
+    }
 
-        releasedResources = new int[numOfResourceTypes];
-        blockedTaskQueue = new ArrayDeque<>();
-        numOfTerminatedTasks = 0;
-        numOfBlockedTasks = 0;
-        cycleNum = 0;
+    /**
+     * have the counters and timers of each simulation sampled every cycle and committed as JFR events
+     */
+    void setRecordingEvents(boolean recordingEvents) {
+        this.recordingEvents = recordingEvents;
     }
 
     /**
-     * run a simulation of the ResourceManager serving its Tasks
+     * start the ResourceManager's simulation of the tasks using optimistic and banker algorithms
+     *
+     * Each algorithm runs in its own Engine, in parallel; the messages of the runs are printed
+     * afterwards in the order of the algorithms, before the results
      */
-    private void run(boolean canDeadlock) {
-        while (numOfTerminatedTasks < tasks.length) {
-            cycle(canDeadlock);
+    void simulate() {
+        Engine[] engines = createEngines();
+        runInParallel(engines);
+
+        for (Engine engine : engines) {
+            for (String message : engine.getMessages()) {
+                System.out.println(message);
+            }
+        }
+        printResults();
+
+        for (Engine engine : engines) {
+            for (String statistic : engine.getStatistics()) {
+                System.out.println(statistic);
+            }
+        }
+
+        if (statsFileName != null && !cycleStats.isEmpty()) {
+            writeCycleStats();
         }
     }
 
     /**
-     * run the optimistic algorithm simulation on the tasks
+     * write the per-cycle samples of the simulations to the statistics file
      */
-    private void runOptimistic() {
-        prepareRun(optimisticResources, optimisticTasks);
-        run(true);
+    private void writeCycleStats() {
+        try (Writer out = new BufferedWriter(new FileWriter(statsFileName))) {
+            if (statsFileName.endsWith(".json")) {
+                CycleStats.writeJson(cycleStats, out);
+            } else {
+                CycleStats.writeCsv(cycleStats, out);
+            }
+        } catch (IOException ex) {
+            System.out.println("\n\nException: Statistics file could not be written.\n\n");
+        }
     }
 
     /**
-     * run the banker's algorithm simulation on the tasks
+     * create an Engine for each algorithm, each set up with the options given to the ResourceManager
      */
-    private void runBanker() {
-        prepareRun(bankerResources, bankerTasks);
-        run(false);
+    Engine[] createEngines() {
+        Engine[] engines;
+        if (tickNanos > 0) {
+            engines = new Engine[]{
+                    new ThreadedEngine(optimisticResources, optimisticTasks, claims, true, tickNanos),
+                    new ThreadedEngine(bankerResources, bankerTasks, claims, false, tickNanos)
+            };
+        } else {
+            SimulationEngine optimistic = new SimulationEngine(optimisticResources, optimisticTasks, claims, true);
+            if (detectingPartialDeadlock) {
+                optimistic.setDetectingPartialDeadlock(true);
+            }
+            SimulationEngine banker = new SimulationEngine(bankerResources, bankerTasks, claims, false);
+            if (admittingInBatches) {
+                banker.setAdmittingInBatches(true);
+            }
+            if (safetyCacheCapacity > 0) {
+                banker.setSafetyCacheCapacity(safetyCacheCapacity);
+            }
+            if (claimsAreIndependent()) {
+                banker.setCheckingTypesIndependently(true);
+            }
+            if (statsFileName != null || recordingEvents) {
+                int capacity = statsFileName != null ? statsCapacity : 1;
+                CycleStats optimisticStats = new CycleStats("optimistic", numOfResourceTypes, capacity, recordingEvents);
+                CycleStats bankerStats = new CycleStats("banker", numOfResourceTypes, capacity, recordingEvents);
+                optimistic.setCycleStats(optimisticStats);
+                banker.setCycleStats(bankerStats);
+                cycleStats = Arrays.asList(optimisticStats, bankerStats);
+            }
+            engines = new Engine[]{optimistic, banker};
+        }
+        return engines;
     }
 
     /**
-     * start the ResourceManager's simulation of the tasks using optimistic and banker algorithms
+     * run engines in parallel on up to one thread per processor and wait for all of them to finish
      */
-    void simulate() {
-        runOptimistic();
-        runBanker();
-        printResults();
+    private static void runInParallel(Engine[] engines) {
+        int numOfThreads = Math.min(engines.length, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (Engine engine : engines) {
+                runs.add(executor.submit(engine));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while simulating", ex);
+        } catch (ExecutionException ex) {
+            // fail the same way the simulation would have on the main thread
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            executor.shutdown();
+        }
     }
 
 
@@ -885,7 +3432,7 @@ class ResourceManager {
         System.out.println();
 
         System.out.println("                      FIFO                    BANKER'S");
-        for (int i = 0; i < tasks.length; i++) {
+        for (int i = 0; i < optimisticTasks.length; i++) {
             Task optTask = optimisticTasks[i];
             Task bankTask = bankerTasks[i];
 
@@ -927,3 +3474,146 @@ class ResourceManager {
         System.out.println();
     }
 }
+
+/**
+ * Benchmarks the Banker simulation on generated workloads as they scale: the simulated cycles per second of the
+ * optimistic and banker runs, and for the banker run the safety checks per run and the time each takes.
+ */
+class BankerBenchmark {
+
+    private static final String OPTIMISTIC = "optimistic";
+    private static final String BANKER = "banker";
+    private static final String[] POLICIES = {OPTIMISTIC, BANKER};
+
+    private static int warmupIterations = 3;
+    private static int measurementIterations = 5;
+    private static int[] taskCounts = {10, 100, 1_000};
+    private static int[] typeCounts = {3, 30};
+    private static String[] policies = POLICIES;
+    private static List<String> workloadArgs = new ArrayList<>();
+
+    // keeps the results alive so the simulations cannot be optimized away
+    private static long sink;
+
+    // run the benchmarks, optionally narrowed by arguments such as
+    // tasks=10,1000 types=3 policy=banker warmup=2 iterations=10
+    // and with any other argument, such as requests=50 or tightness=3, passed to the WorkloadGenerator
+    public static void main(String[] args) {
+        for (String arg : args) {
+            String[] nameAndValue = arg.split("=", 2);
+            switch (nameAndValue[0]) {
+                case "tasks":
+                    taskCounts = parseInts(nameAndValue[1]);
+                    break;
+                case "types":
+                    typeCounts = parseInts(nameAndValue[1]);
+                    break;
+                case "policy":
+                    policies = nameAndValue[1].split(",");
+                    break;
+                case "warmup":
+                    warmupIterations = Integer.parseInt(nameAndValue[1]);
+                    break;
+                case "iterations":
+                    measurementIterations = Integer.parseInt(nameAndValue[1]);
+                    break;
+                default:
+                    if (!new WorkloadGenerator().set(nameAndValue[0], nameAndValue.length > 1 ? nameAndValue[1] : "")) {
+                        System.out.println("Unknown argument '" + arg + "'");
+                        return;
+                    }
+                    workloadArgs.add(arg);
+            }
+        }
+
+        String format = "%-10s %6s %6s %9s %14s %12s %10s %13s%n";
+        System.out.printf(format, "policy", "tasks", "types", "cycles", "cycles/s", "error", "checks", "ns/check");
+
+        for (String policy : policies) {
+            for (int tasks : taskCounts) {
+                for (int types : typeCounts) {
+                    Result r = benchmark(policy.equals(BANKER), tasks, types);
+                    System.out.printf(format, policy, tasks, types, r.cycles, String.format("%.0f", r.cyclesPerSecond),
+                            String.format("+-%.0f", r.error), r.safetyChecks,
+                            r.safetyChecks == 0 ? "-" : String.format("%.0f", r.nsPerSafetyCheck));
+                }
+            }
+        }
+
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static int[] parseInts(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private static class Result {
+        int cycles;
+        double cyclesPerSecond;
+        double error;
+        long safetyChecks;
+        double nsPerSafetyCheck;
+    }
+
+    private static Result benchmark(boolean banker, int tasks, int types) {
+        WorkloadGenerator generator = new WorkloadGenerator();
+        generator.set("tasks", String.valueOf(tasks));
+        generator.set("types", String.valueOf(types));
+        for (String arg : workloadArgs) {
+            String[] nameAndValue = arg.split("=", 2);
+            generator.set(nameAndValue[0], nameAndValue[1]);
+        }
+        byte[] workload = generator.generate().getBytes(StandardCharsets.US_ASCII);
+
+        Result result = new Result();
+        List<Double> cyclesPerSecond = new ArrayList<>();
+        long safetyCheckNanos = 0;
+        int timedRuns = 0;
+
+        for (int i = 0; i < warmupIterations + measurementIterations; i++) {
+            // parsing is not measured; every other measured run also times its safety checks, and only
+            // the untimed runs count towards the cycles per second
+            boolean timed = banker && i % 2 == 1;
+            SimulationEngine engine = createEngine(workload, banker);
+            engine.setTimingSafetyChecks(timed);
+
+            long start = System.nanoTime();
+            engine.run();
+            long elapsed = System.nanoTime() - start;
+            sink += engine.getCycleNum();
+
+            if (i >= warmupIterations) {
+                result.cycles = engine.getCycleNum();
+                result.safetyChecks = engine.getNumOfSafetyChecks();
+                if (timed) {
+                    safetyCheckNanos += engine.getSafetyCheckNanos();
+                    timedRuns++;
+                } else {
+                    cyclesPerSecond.add(engine.getCycleNum() / (elapsed / 1e9));
+                }
+            }
+        }
+
+        result.cyclesPerSecond = cyclesPerSecond.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        double variance = cyclesPerSecond.stream().mapToDouble(v -> (v - result.cyclesPerSecond) * (v - result.cyclesPerSecond)).sum()
+                / Math.max(1, cyclesPerSecond.size() - 1);
+        result.error = Math.sqrt(variance);
+
+        if (result.safetyChecks > 0 && timedRuns > 0) {
+            result.nsPerSafetyCheck = safetyCheckNanos / (double) (result.safetyChecks * timedRuns);
+        }
+        return result;
+    }
+
+    private static SimulationEngine createEngine(byte[] workload, boolean banker) {
+        ResourceManager rm;
+        try {
+            rm = new InputParser(Channels.newChannel(new ByteArrayInputStream(workload))).parse();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // a byte array does not throw
+        }
+        return (SimulationEngine) rm.createEngines()[banker ? 1 : 0];
+    }
+}
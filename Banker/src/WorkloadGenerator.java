@@ -0,0 +1,154 @@
+// Generates Banker input files from a seed: task sets of a given number of tasks, resource types and requests
+// per task, with units of each type set so that the tasks claim a given multiple of what there is.
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class WorkloadGenerator {
+
+    private int numOfTasks = 10;
+    private int numOfResourceTypes = 3;
+    private int requestsPerTask = 10;
+    private int maxClaim = 5;
+    private int maxCompute = 3;
+
+    // how many times over the tasks claim the units of each type; 1 or less leaves enough for every claim at once
+    private double tightness = 2.0;
+    private long seed = 1;
+
+    // write a workload to standard output or a file, configured by arguments such as
+    // tasks=100 types=4 requests=20 claim=5 compute=3 tightness=2 seed=7 out=workload.txt
+    public static void main(String[] args) throws IOException {
+        WorkloadGenerator generator = new WorkloadGenerator();
+        String out = null;
+        for (String arg : args) {
+            String[] nameAndValue = arg.split("=", 2);
+            switch (nameAndValue[0]) {
+                case "out":
+                    out = nameAndValue[1];
+                    break;
+                default:
+                    if (!generator.set(nameAndValue[0], nameAndValue.length > 1 ? nameAndValue[1] : "")) {
+                        System.out.println("Unknown argument '" + arg + "'");
+                        return;
+                    }
+            }
+        }
+
+        try (Writer writer = out == null ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : new BufferedWriter(new FileWriter(out))) {
+            generator.write(writer);
+        }
+    }
+
+    // set a parameter by the name used on the command line; return false for an unknown name
+    boolean set(String name, String value) {
+        switch (name) {
+            case "tasks":
+                numOfTasks = Integer.parseInt(value);
+                return true;
+            case "types":
+                numOfResourceTypes = Integer.parseInt(value);
+                return true;
+            case "requests":
+                requestsPerTask = Integer.parseInt(value);
+                return true;
+            case "claim":
+                maxClaim = Integer.parseInt(value);
+                return true;
+            case "compute":
+                maxCompute = Integer.parseInt(value);
+                return true;
+            case "tightness":
+                tightness = Double.parseDouble(value);
+                return true;
+            case "seed":
+                seed = Long.parseLong(value);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // generate the workload as the text of an input file
+    String generate() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            write(sb);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex); // a StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    // each task claims a random amount of each type and, in turn, requests parts of what is left of its claims,
+    // computes and sometimes releases what it holds of a type, then releases everything and terminates; no request
+    // exceeds a claim, and the units of each type cover the largest claim on it
+    void write(Appendable out) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+
+        int[][] claims = new int[numOfTasks][numOfResourceTypes];
+        long[] claimed = new long[numOfResourceTypes];
+        int[] units = new int[numOfResourceTypes];
+        for (int t = 0; t < numOfTasks; t++) {
+            for (int r = 0; r < numOfResourceTypes; r++) {
+                claims[t][r] = random.nextInt(maxClaim + 1);
+                claimed[r] += claims[t][r];
+                units[r] = Math.max(units[r], claims[t][r]);
+            }
+        }
+        for (int r = 0; r < numOfResourceTypes; r++) {
+            units[r] = (int) Math.max(units[r], Math.min(Integer.MAX_VALUE, (long) Math.ceil(claimed[r] / tightness)));
+        }
+
+        out.append(String.valueOf(numOfTasks)).append(' ').append(String.valueOf(numOfResourceTypes));
+        for (int r = 0; r < numOfResourceTypes; r++) {
+            out.append(' ').append(String.valueOf(units[r]));
+        }
+        out.append('\n');
+
+        int[] held = new int[numOfResourceTypes];
+        for (int t = 0; t < numOfTasks; t++) {
+            int id = t + 1;
+            for (int r = 0; r < numOfResourceTypes; r++) {
+                activity(out, "initiate", id, r + 1, claims[t][r]);
+            }
+
+            Arrays.fill(held, 0);
+            for (int k = 0; k < requestsPerTask; k++) {
+                int r = random.nextInt(numOfResourceTypes);
+                int left = claims[t][r] - held[r];
+                if (left > 0) {
+                    int quantity = 1 + random.nextInt(left);
+                    activity(out, "request", id, r + 1, quantity);
+                    held[r] += quantity;
+                }
+                if (maxCompute > 0 && random.nextBoolean()) {
+                    activity(out, "compute", id, 1 + random.nextInt(maxCompute), 0);
+                }
+                int release = random.nextInt(numOfResourceTypes);
+                if (held[release] > 0 && random.nextInt(4) == 0) {
+                    activity(out, "release", id, release + 1, held[release]);
+                    held[release] = 0;
+                }
+            }
+
+            for (int r = 0; r < numOfResourceTypes; r++) {
+                if (held[r] > 0) {
+                    activity(out, "release", id, r + 1, held[r]);
+                }
+            }
+            activity(out, "terminate", id, 0, 0);
+        }
+    }
+
+    private static void activity(Appendable out, String type, int id, int prop1, int prop2) throws IOException {
+        out.append(type).append(' ').append(String.valueOf(id)).append(' ')
+                .append(String.valueOf(prop1)).append(' ').append(String.valueOf(prop2)).append('\n');
+    }
+}
@@ -1,13 +1,75 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Main {
 
     public static void main(String[] args) {
-        Driver driver = new Driver(args);
+        if (args.length > 0 && args[0].equals("--sweep")) {
+            new Sweep(args).run();
+            return;
+        }
+
+        Driver driver = new Driver(args, new RandomCursor(RandomCursor.load("random-numbers"))); // magic file name
         driver.echoParams();
         driver.simulate();
+        driver.printResults();
+    }
+}
+
+// A cursor over the numbers of the random-numbers file. The file is loaded once and every Driver
+// reads the numbers from the start through its own cursor.
+class RandomCursor {
+
+    private final long[] numbers;
+    private int position;
+
+    RandomCursor(long[] numbers) {
+        this.numbers = numbers;
+    }
+
+    static long[] load(String fileName) {
+        List<Long> numbers = new ArrayList<>();
+        try {
+            Scanner sc = new Scanner(new File(fileName));
+            while (sc.hasNextLong()) {
+                numbers.add(sc.nextLong());
+            }
+            sc.close();
+        } catch(FileNotFoundException ex) {
+            System.out.println("Failed to find file '" + fileName + "'");
+            System.exit(0);
+        }
+
+        long[] loaded = new long[numbers.size()];
+        for (int i = 0; i < loaded.length; i++) {
+            loaded[i] = numbers.get(i);
+        }
+        return loaded;
+    }
+
+    long nextLong() {
+        if (position == numbers.length) {
+            throw new NoSuchElementException("ran out of random numbers");
+        }
+        return numbers[position++];
     }
 }
 
@@ -17,293 +79,1881 @@ class Driver {
     private final int PID_INDEX = 0;
     private final int PAGE_INDEX = 1;
     private final int RECENT_SCORE_INDEX = 2;
+    private final int PREFETCHED_INDEX = 3; // 1 while a prefetched page has not been referenced
+    private final int DIRTY_INDEX = 4; // 1 once the page has been written
+    private final int ARRIVAL_INDEX = 5; // with the disk model, the time the page arrives in its frame
+    private final int LOAD_TIME_INDEX = 6;
+    private final int FRAME_FIELDS = 7;
+
+    private final int QUANTUM = 3;
+
+    // the local replacement algorithms
+    private static final String WORKING_SET = "ws";
+    private static final String FAULT_FREQUENCY = "pff";
 
     private int MACHINE_SIZE;
     private int PAGE_SIZE;
     private int PROCESS_SIZE;
-    private int JOB_MIX;
-    private int NUM_OF_REFERENCES;
+    private String JOB_MIX;
+    private long NUM_OF_REFERENCES;
     private int NUM_OF_FRAMES;
     private String REPLACEMENT_ALGORITHM;
 
-    // process in circular linked list of processes
+    // the built in job mixes; each row is the {A, B, C} of one process
+    static final double[][][] JOB_MIXES = {
+            {{1, 0, 0}},
+            {{1, 0, 0}, {1, 0, 0}, {1, 0, 0}, {1, 0, 0}},
+            {{0, 0, 0}, {0, 0, 0}, {0, 0, 0}, {0, 0, 0}},
+            {{.75, .25, 0}, {.75, 0, .25}, {.75, .125, .125}, {.5, .125, .125}}
+    };
+
+    // processes in round-robin order and the index of the running process
+    private Process[] processes;
+    private int current;
     private Process process;
 
-    private int[][] frameTable;
+    private long[][] frameTable;
     private int highestFreeFrame;
+    private int lastFrameIndex;
     private int NUM_OF_PROCESSES;
 
-    private Scanner randScanner;
+    // while the pages after a fault are prefetched, the frame entry of the page the fault demanded
+    private long[] demandedEntry;
 
-    Driver(String[] params) {
-        try {
-            randScanner = new Scanner(new File("random-numbers")); // magic file name
-        } catch(FileNotFoundException ex) {
-            System.out.println("Failed to find file 'random-numbers'");
-            System.exit(0);
-        }
+    private RandomCursor rand;
+
+    // the memory-access trace being replayed, null when references come from the locality model
+    private String traceFileName;
+    private TraceReader trace;
+    private boolean interleave;
+
+    // the optional TLB and page table cost model
+    private TlbModel tlb;
+    private int tlbEntries;
+    private int tlbWays;
+    private int[] levelBits = {11, 10, 10};
+    private long[] accessTimes = {1, 100, 5000000};
+
+    // per-process recency lists of frames for the local replacement algorithms, newest at the head,
+    // the process's own reference count at each frame's last use, and a stack of free frames
+    private boolean local;
+    private int[] newerFrame;
+    private int[] olderFrame;
+    private long[] frameUseTime;
+    private int[] freeFrames;
+    private int numOfFreeFrames;
+
+    // the working set window and the fault intervals below which a process's quota grows and above which it shrinks
+    private int window = 20;
+    private int[] faultIntervals = {5, 20};
+
+    // the prefetch policy (next, stride or adaptive) and the most pages it loads with a demanded page
+    private static final String NEXT = "next";
+    private static final String STRIDE = "stride";
+    private static final String ADAPTIVE = "adaptive";
+    private String prefetchPolicy;
+    private int prefetchDepth;
+
+    // the optional paging disk timing model; every reference takes the memory access time and the clock
+    // is in simulated ns. A fraction of references are writes, which dirty their page.
+    private DiskModel disk;
+    private long[] diskParams = {5000000, 1, 1, 500000};
+    private double writeFraction;
+    private long clock;
+    private int quantumLeft = QUANTUM;
+
+    // whether each process streams its residencies into a histogram for percentiles
+    private boolean residencyStats;
+
+    // resident set sizes are sampled every rssInterval references, optionally to a csv file
+    private int rssInterval;
+    private String rssLogFileName;
+    private PrintWriter rssLog;
+
+    // the results of the simulation
+    private long[] faults;
+    private long[] evictions;
+    private long[] residencies;
+    private long totalReferences;
+
+    Driver(String[] params, RandomCursor rand) {
+        this.rand = rand;
 
         MACHINE_SIZE = Integer.parseInt(params[0]);
         PAGE_SIZE = Integer.parseInt(params[1]);
         PROCESS_SIZE = Integer.parseInt(params[2]);
-        JOB_MIX = Integer.parseInt(params[3]);
-        NUM_OF_REFERENCES = Integer.parseInt(params[4]);
+        JOB_MIX = params[3];
+        NUM_OF_REFERENCES = Long.parseLong(params[4]);
         REPLACEMENT_ALGORITHM = params[5];
 
+        for (int i = 6; i < params.length; i++) {
+            try {
+                switch (params[i]) {
+                    case "--trace":
+                        traceFileName = optionValue(params, ++i);
+                        break;
+                    case "--interleave":
+                        interleave = true;
+                        break;
+                    case "--tlb":
+                        int[] tlbShape = parseInts(optionValue(params, ++i));
+                        tlbEntries = tlbShape[0];
+                        tlbWays = tlbShape.length > 1 ? tlbShape[1] : tlbShape[0];
+                        break;
+                    case "--levels":
+                        levelBits = parseInts(optionValue(params, ++i));
+                        break;
+                    case "--prefetch":
+                        String[] policyAndDepth = optionValue(params, ++i).split(":");
+                        prefetchPolicy = policyAndDepth[0];
+                        prefetchDepth = policyAndDepth.length > 1 ? Integer.parseInt(policyAndDepth[1]) : 1;
+                        if (!List.of(NEXT, STRIDE, ADAPTIVE).contains(prefetchPolicy) || prefetchDepth < 1) {
+                            System.out.println("Prefetch policy '" + params[i] + "' is not next, stride or adaptive with a positive depth");
+                            System.exit(0);
+                        }
+                        break;
+                    case "--disk":
+                        int[] given = parseInts(optionValue(params, ++i));
+                        for (int d = 0; d < given.length && d < diskParams.length; d++) {
+                            diskParams[d] = given[d];
+                        }
+                        disk = new DiskModel(diskParams[0], (int)diskParams[1], (int)diskParams[2], diskParams[3]);
+                        break;
+                    case "--write-fraction":
+                        writeFraction = Double.parseDouble(optionValue(params, ++i));
+                        break;
+                    case "--residency-stats":
+                        residencyStats = true;
+                        break;
+                    case "--window":
+                        window = Integer.parseInt(optionValue(params, ++i));
+                        break;
+                    case "--pff":
+                        faultIntervals = parseInts(optionValue(params, ++i));
+                        break;
+                    case "--rss-interval":
+                        rssInterval = Integer.parseInt(optionValue(params, ++i));
+                        break;
+                    case "--rss-log":
+                        rssLogFileName = optionValue(params, ++i);
+                        break;
+                    case "--access-times":
+                        int[] times = parseInts(optionValue(params, ++i));
+                        for (int t = 0; t < times.length && t < accessTimes.length; t++) {
+                            accessTimes[t] = times[t];
+                        }
+                        break;
+                    default:
+                        System.out.println("Unknown option '" + params[i] + "'");
+                        System.exit(0);
+                }
+            } catch(NumberFormatException ex) {
+                System.out.println("Option '" + params[i - 1] + "' needs a number, not '" + params[i] + "'");
+                System.exit(0);
+            }
+        }
+
+        if (tlbEntries > 0) {
+            tlb = new TlbModel(tlbEntries, tlbWays, levelBits);
+        }
+
         initFrameTable();
         initProcesses(JOB_MIX);
+
+        local = REPLACEMENT_ALGORITHM.equals(WORKING_SET) || REPLACEMENT_ALGORITHM.equals(FAULT_FREQUENCY);
+        if (local) {
+            initLocalAllocation();
+        }
+        if (rssInterval <= 0) {
+            rssInterval = QUANTUM * NUM_OF_PROCESSES; // about one round of the processes
+        }
+
+        if (traceFileName != null) {
+            initTrace();
+        }
     }
 
     private class Process {
-        Process next;
         int word;
         int pid;
+        int size;
         double A;
         double B;
         double C;
 
-        int references;
+        long references;
+
+        // the page of the reference being made and, for a trace replayed in quantum order, this process's cursor
+        int page;
+        TraceDemux.Cursor trace;
 
-        Process(int pid, double A, double B, double C) {
+        // the resident pages only; their load times are kept in their frames
+        PageSet residentSet = new PageSet();
+        int residentPages;
+
+        // the ends of this process's frame recency list, its frame quota and when it last faulted
+        int newestFrame = -1;
+        int oldestFrame = -1;
+        int quota;
+        long lastFaultTime;
+
+        // the last page referenced and the stride that led to it, and the adaptive read-ahead window
+        int lastPage;
+        int stride;
+        boolean strideConfirmed;
+        int readAhead = 1;
+
+        // with the disk model, the time at which the page this process is waiting for arrives, and whether
+        // its trace records have run out
+        long readyTime;
+        boolean finished;
+
+        // pages prefetched, prefetched pages later referenced and prefetched pages evicted unreferenced
+        long prefetches;
+        long prefetchHits;
+        long prefetchWaste;
+
+        // the residency of every evicted page, when residency percentiles are reported
+        LogHistogram residencyHistogram;
+
+        // samples of the resident set size
+        long residentPagesSum;
+        long residentPagesSamples;
+        int maxResidentPages;
+
+        Process(int pid, double A, double B, double C, int size) {
             this.pid = pid;
             this.A = A;
             this.B = B;
             this.C = C;
+            this.size = size;
 
-            this.word = (111 * pid) % PROCESS_SIZE;
-        }
-
-        Process link(Process p) {
-            next = p;
-            return this;
+            this.word = (111 * pid) % size;
         }
     }
 
     private void initFrameTable() {
         NUM_OF_FRAMES = MACHINE_SIZE / PAGE_SIZE;
         highestFreeFrame = NUM_OF_FRAMES - 1;
-        frameTable = new int[NUM_OF_FRAMES][3];
+        frameTable = new long[NUM_OF_FRAMES][FRAME_FIELDS];
     }
 
-    private void initProcesses(int jobMix) {
-        NUM_OF_PROCESSES = 4;
+    private void initLocalAllocation() {
+        newerFrame = new int[NUM_OF_FRAMES];
+        olderFrame = new int[NUM_OF_FRAMES];
+        frameUseTime = new long[NUM_OF_FRAMES];
 
-        Process p1;
-        Process p2;
-        Process p3;
-        Process p4;
+        // hand out free frames highest first as the global algorithms do
+        freeFrames = new int[NUM_OF_FRAMES];
+        for (int i = 0; i < NUM_OF_FRAMES; i++) {
+            freeFrames[i] = i;
+        }
+        numOfFreeFrames = NUM_OF_FRAMES;
+        highestFreeFrame = -1; // every fault goes through localReplace
 
-        switch (jobMix) {
-            case 1:
-                p1 = new Process(1, 1, 0, 0);
-                process = p1.link(p1);
-                NUM_OF_PROCESSES = 1;
-                break;
-            case 2:
-                p1 = new Process(1, 1, 0, 0);
-                p2 = new Process(2, 1, 0, 0);
-                p3 = new Process(3, 1, 0, 0);
-                p4 = new Process(4, 1, 0, 0);
-                process = p1.link(p2.link(p3.link(p4.link(p1))));
-                break;
-            case 3:
-                p1 = new Process(1, 0, 0, 0);
-                p2 = new Process(2, 0, 0, 0);
-                p3 = new Process(3, 0, 0, 0);
-                p4 = new Process(4, 0, 0, 0);
-                process = p1.link(p2.link(p3.link(p4.link(p1))));
-                break;
-            case 4:
-                p1 = new Process(1, .75, .25, 0);
-                p2 = new Process(2, .75, 0, .25);
-                p3 = new Process(3, .75, .125, .125);
-                p4 = new Process(4, .5, .125, .125);
-                process = p1.link(p2.link(p3.link(p4.link(p1))));
-                break;
+        for (Process p : processes) {
+            p.quota = Math.max(1, NUM_OF_FRAMES / NUM_OF_PROCESSES);
+        }
+    }
+
+    private void initProcesses(String jobMix) {
+        List<Process> mix = new ArrayList<>();
+
+        if (jobMix.matches("[1-" + JOB_MIXES.length + "]")) {
+            for (double[] abc : JOB_MIXES[Integer.parseInt(jobMix) - 1]) {
+                mix.add(new Process(mix.size() + 1, abc[0], abc[1], abc[2], PROCESS_SIZE));
+            }
+        } else {
+            readJobMixFile(jobMix, mix);
+        }
+
+        processes = mix.toArray(new Process[0]);
+        if (residencyStats) {
+            for (Process p : processes) {
+                p.residencyHistogram = new LogHistogram();
+            }
+        }
+        NUM_OF_PROCESSES = processes.length;
+        current = 0;
+        process = processes[current];
+    }
+
+    // each line of a job mix file is "count A B C [size]"; blank lines and lines starting with # are skipped
+    private void readJobMixFile(String fileName, List<Process> mix) {
+        Scanner sc = null;
+        try {
+            sc = new Scanner(new File(fileName));
+        } catch(FileNotFoundException ex) {
+            System.out.println("Failed to find job mix file '" + fileName + "'");
+            System.exit(0);
+        }
+
+        while (sc.hasNextLine()) {
+            String line = sc.nextLine().trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split("\\s+");
+            int count = Integer.parseInt(fields[0]);
+            double A = Double.parseDouble(fields[1]);
+            double B = Double.parseDouble(fields[2]);
+            double C = Double.parseDouble(fields[3]);
+            int size = fields.length > 4 ? Integer.parseInt(fields[4]) : PROCESS_SIZE;
+
+            for (int i = 0; i < count; i++) {
+                mix.add(new Process(mix.size() + 1, A, B, C, size));
+            }
+        }
+        sc.close();
+
+        if (mix.isEmpty()) {
+            System.out.println("Job mix file '" + fileName + "' has no processes");
+            System.exit(0);
+        }
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i]);
+        }
+        return values;
+    }
+
+    // the value given after an option, or exit if the option ends the arguments
+    private static String optionValue(String[] params, int i) {
+        if (i >= params.length) {
+            System.out.println("Option '" + params[i - 1] + "' needs a value");
+            System.exit(0);
+        }
+        return params[i];
+    }
+
+    private void initTrace() {
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(traceFileName), StandardOpenOption.READ);
+            if (interleave) {
+                // each process follows its own records through one pass over the trace
+                TraceDemux demux = new TraceDemux(channel, NUM_OF_PROCESSES, NUM_OF_REFERENCES);
+                for (Process p : processes) {
+                    p.trace = demux.cursor(p.pid);
+                }
+            } else {
+                trace = new TraceReader(channel);
+            }
+        } catch(IOException ex) {
+            System.out.println("Failed to open trace file '" + traceFileName + "'");
+            System.exit(0);
+        }
+    }
+
+    private Process processForPid(int pid) {
+        if (pid < 1 || pid > NUM_OF_PROCESSES) {
+            System.out.println("Trace references process " + pid + " but the job mix has " + NUM_OF_PROCESSES + " processes");
+            System.exit(0);
+        }
+        return processes[pid - 1];
+    }
+
+    private int pageOfAddress(long address) {
+        long page = address / PAGE_SIZE;
+        if (address < 0 || page > Integer.MAX_VALUE) {
+            System.out.println("Trace address " + address + " is out of range for a page size of " + PAGE_SIZE);
+            System.exit(0);
+        }
+        return (int)page;
+    }
+
+    // make the process issuing the next reference the running process and set its page;
+    // return false when every process has made all of its references
+    private boolean loadReference(long references) {
+        if (disk != null && !(traceFileName != null && !interleave)) {
+            return loadReferenceFromReadyProcess();
+        }
+
+        if (traceFileName == null) {
+            if (references >= NUM_OF_REFERENCES * NUM_OF_PROCESSES) {
+                return false;
+            }
+            process.page = process.word / PAGE_SIZE;
+            return true;
+        }
+
+        if (!interleave) {
+            // replay in file order, skipping processes that already made all of their references
+            while (trace.next()) {
+                Process p = processForPid(trace.pid());
+                if (p.references < NUM_OF_REFERENCES) {
+                    process = p;
+                    process.page = pageOfAddress(trace.address());
+                    if (disk != null) {
+                        clock = Math.max(clock, process.readyTime); // the trace order makes everyone wait
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // replay in quantum order, passing over processes whose records have run out
+        for (int tried = 0; tried < NUM_OF_PROCESSES; tried++) {
+            if (process.references < NUM_OF_REFERENCES && process.trace.next()) {
+                process.page = pageOfAddress(process.trace.address());
+                return true;
+            }
+            nextProcess();
+        }
+        return false;
+    }
+
+    // with the disk model, run the first process in the ring that has references left and is not waiting
+    // for the disk, idling the clock until a page arrives when every such process is waiting
+    private boolean loadReferenceFromReadyProcess() {
+        while (true) {
+            long earliestReady = Long.MAX_VALUE;
+            for (int tried = 0; tried < NUM_OF_PROCESSES; tried++) {
+                if (!process.finished && process.references < NUM_OF_REFERENCES) {
+                    if (process.readyTime <= clock) {
+                        if (traceFileName == null) {
+                            process.page = process.word / PAGE_SIZE;
+                            return true;
+                        }
+                        if (process.trace.next()) {
+                            process.page = pageOfAddress(process.trace.address());
+                            return true;
+                        }
+                        process.finished = true;
+                    } else {
+                        earliestReady = Math.min(earliestReady, process.readyTime);
+                    }
+                }
+                nextProcess();
+                quantumLeft = QUANTUM;
+            }
+
+            if (earliestReady == Long.MAX_VALUE) {
+                return false; // every process is done
+            }
+            clock = earliestReady;
+        }
+    }
+
+    // whether the running process's current reference writes its page; decided by hashing the process and
+    // its reference count so that writes do not consume random numbers
+    private boolean isWrite() {
+        if (writeFraction <= 0) {
+            return false;
+        }
+        long h = (process.pid * 0xC2B2AE3D27D4EB4FL + process.references) * 0x9E3779B97F4A7C15L;
+        return (h >>> 11) * 0x1.0p-53 < writeFraction;
+    }
+
+    // advance the running process past the reference it just made
+    private void finishReference(boolean fault) {
+        if (traceFileName == null) {
+            process.word = nextWord();
+        }
+        process.references++;
+
+        if (traceFileName != null && !interleave) {
+            return; // the trace decides which process runs next
+        }
+
+        if (disk != null) {
+            // a process that faulted waits for the disk, so the next process runs
+            quantumLeft--;
+            if (fault || quantumLeft == 0 || process.references >= NUM_OF_REFERENCES) {
+                nextProcess();
+                quantumLeft = QUANTUM;
+            }
+            return;
+        }
+
+        if ((process.references % QUANTUM) == 0 || process.references >= NUM_OF_REFERENCES) {
+            nextProcess();
         }
     }
 
+    // move the running process to the next process in the ring
+    private void nextProcess() {
+        current = (current + 1) % NUM_OF_PROCESSES;
+        process = processes[current];
+    }
+
     private int nextWord() {
         double A = process.A;
         double B = process.B;
         double C = process.C;
         int word = process.word;
+        int size = process.size;
 
-        long r = randScanner.nextLong();
+        long r = rand.nextLong();
         double y = r / (Integer.MAX_VALUE + 1d);
 
         if (y < A) {
-            return (word + 1) % PROCESS_SIZE;
+            return (word + 1) % size;
         } else if (y < A + B) {
-            return (word - 5 + PROCESS_SIZE) % PROCESS_SIZE;
+            return (word - 5 + size) % size;
         } else if (y < A + B + C) {
-            return (word + 4) % PROCESS_SIZE;
+            return (word + 4) % size;
         } else {
-            return (int)randScanner.nextLong() % PROCESS_SIZE;
+            return (int)rand.nextLong() % size;
         }
     }
 
     void simulate() {
-        final String LRU = "lru";
-        final String LIFO = "lifo";
-        final String RANDOM = "random";
-        final int QUANTUM = 3;
-
-        int[] faults = new int[NUM_OF_PROCESSES];
-        int[] evictions = new int[NUM_OF_PROCESSES];
-        int[] residencies = new int[NUM_OF_PROCESSES];
-        int[][] loadTimes = new int[NUM_OF_PROCESSES][PROCESS_SIZE / PAGE_SIZE];
+        long[] faults = new long[NUM_OF_PROCESSES];
+        long[] evictions = new long[NUM_OF_PROCESSES];
+        long[] residencies = new long[NUM_OF_PROCESSES];
 
-        int lastFrameIndex = 0;
+        lastFrameIndex = 0;
 
-        int totalReferences = NUM_OF_REFERENCES * NUM_OF_PROCESSES;
-        int references = 0;
+        long references = 0;
 
-        while (references < totalReferences) {
+        while (loadReference(references)) {
             int pid = process.pid;
-            int page = process.word / PAGE_SIZE;
+            int page = process.page;
+
+            if (tlb != null) {
+                tlb.translate(pid, page);
+            }
 
             // look for a hit
             boolean fault = true;
+            boolean waits = false;
             for (int i = frameTable.length - 1; i >= 0; i--) {
-                int[] frame = frameTable[i];
-                int framePid = frame[PID_INDEX];
-                int framePage = frame[PAGE_INDEX];
+                long[] frame = frameTable[i];
+                int framePid = (int)frame[PID_INDEX];
+                int framePage = (int)frame[PAGE_INDEX];
 
                 if (framePid == pid && framePage == page) { // hit
                     frame[RECENT_SCORE_INDEX] = references + 1;
                     fault = false;
 
+                    if (frame[PREFETCHED_INDEX] == 1) {
+                        frame[PREFETCHED_INDEX] = 0;
+                        process.prefetchHits++;
+                        process.readAhead = Math.min(process.readAhead * 2, prefetchDepth);
+                    }
+
+                    // a prefetched page still on its way from the disk makes the process wait as a fault would
+                    if (frame[ARRIVAL_INDEX] > clock) {
+                        process.readyTime = frame[ARRIVAL_INDEX];
+                        waits = true;
+                    }
+
+                    if (local) {
+                        touchFrame(i);
+                    }
+
+                    if (writeFraction > 0 && isWrite()) {
+                        frame[DIRTY_INDEX] = 1;
+                    }
+
                     break;
                 }
             }
 
+            if (prefetchPolicy != null) {
+                detectStride(page);
+            }
+
+            if (disk != null) {
+                clock += accessTimes[1];
+            }
+
             if (fault) {
                 faults[pid - 1]++;
-                int[] entry = {pid, page, references + 1};
-
-                if (highestFreeFrame >= 0) {
-                    lastFrameIndex = highestFreeFrame;
-                    frameTable[highestFreeFrame] = entry;
-                    highestFreeFrame--;
-                } else { // evict
-                    switch (REPLACEMENT_ALGORITHM) {
-                        case LRU:
-                            lru(entry, references, evictions, residencies, loadTimes);
-                            break;
-                        case LIFO:
-                            lifo(entry, references, evictions, residencies, loadTimes, lastFrameIndex);
-                            break;
-                        case RANDOM:
-                            random(entry, references, evictions, residencies, loadTimes);
-                            break;
-                    }
+                if (disk != null) {
+                    process.readyTime = disk.read(clock);
                 }
+                long[] entry = {pid, page, references + 1, 0, isWrite() ? 1 : 0, process.readyTime, 0};
+                loadPage(entry, references, evictions, residencies);
 
-                // save load time of the loaded page
-                loadTimes[pid - 1][page] = references + 1;
+                if (prefetchPolicy != null) {
+                    demandedEntry = entry;
+                    prefetch(page, references, evictions, residencies);
+                    demandedEntry = null;
+                }
             }
 
-            process.word = nextWord();
-            process.references++;
+            if (REPLACEMENT_ALGORITHM.equals(WORKING_SET)) {
+                trimWorkingSet(references, evictions, residencies);
+            }
 
-            if ((process.references % QUANTUM) == 0 || process.references >= NUM_OF_REFERENCES) {
-                process = process.next;
+            if ((references + 1) % rssInterval == 0) {
+                sampleResidentSets(references + 1);
             }
 
+            finishReference(fault || waits);
+
             references++;
         }
 
-        printResults(faults, evictions, residencies);
+        if (disk != null) {
+            disk.flush(clock);
+        }
+
+        this.faults = faults;
+        this.evictions = evictions;
+        this.residencies = residencies;
+        this.totalReferences = references;
+
+        if (rssLog != null) {
+            rssLog.close();
+        }
+    }
+
+    int getNumOfProcesses() { return NUM_OF_PROCESSES; }
+
+    long getFaults(int process) { return faults[process]; }
+
+    // the average residency of a process, NaN when it had no evictions
+    double getAverageResidency(int process) {
+        return evictions[process] == 0 ? Double.NaN : residencies[process] / (double)evictions[process];
+    }
+
+    // place a page in a free frame or in the frame the replacement algorithm evicts
+    private void loadPage(long[] entry, long references, long[] evictions, long[] residencies) {
+        final String LRU = "lru";
+        final String LIFO = "lifo";
+        final String RANDOM = "random";
+
+        if (highestFreeFrame >= 0) {
+            lastFrameIndex = highestFreeFrame;
+            frameTable[highestFreeFrame] = entry;
+            highestFreeFrame--;
+        } else { // evict
+            switch (REPLACEMENT_ALGORITHM) {
+                case LRU:
+                    lru(entry, references, evictions, residencies);
+                    break;
+                case LIFO:
+                    lifo(entry, references, evictions, residencies, lastFrameIndex);
+                    break;
+                case RANDOM:
+                    random(entry, references, evictions, residencies);
+                    break;
+                case WORKING_SET:
+                case FAULT_FREQUENCY:
+                    localReplace(entry, references, evictions, residencies);
+                    break;
+            }
+        }
+
+        // save load time of the loaded page
+        entry[LOAD_TIME_INDEX] = references + 1;
+        process.residentSet.add((int)entry[PAGE_INDEX]);
+        process.residentPages++;
     }
 
-    private void lru(int[] entry, int references, int[] evictions, int[] residencies, int[][] loadTimes) {
-        int index = 0;
-        int[] leastRecentFrame = frameTable[index];
+    // a prefetch must not evict the page the running process just demanded, which lifo and a local
+    // algorithm whose oldest page of the process is the demanded one would pick as the victim; lru and
+    // random pass over its frame, so they need another frame to choose from
+    private boolean canPrefetchWithoutEvicting() {
+        if (local) {
+            boolean atQuota = REPLACEMENT_ALGORITHM.equals(FAULT_FREQUENCY) && process.residentPages >= process.quota;
+            return (numOfFreeFrames > 0 && !atQuota) || frameTable[process.oldestFrame] != demandedEntry;
+        }
+        return highestFreeFrame >= 0 || (!REPLACEMENT_ALGORITHM.equals("lifo") && NUM_OF_FRAMES > 1);
+    }
+
+    // track the stride between the distinct pages the running process references
+    private void detectStride(int page) {
+        if (page != process.lastPage) {
+            int stride = page - process.lastPage;
+            process.strideConfirmed = stride == process.stride;
+            process.stride = stride;
+            process.lastPage = page;
+        }
+    }
+
+    // load the pages the prefetch policy predicts will follow a faulting page
+    private void prefetch(int page, long references, long[] evictions, long[] residencies) {
+        int stride = 1;
+        int count = prefetchDepth;
+        switch (prefetchPolicy) {
+            case STRIDE:
+                if (!process.strideConfirmed || process.stride == 0) {
+                    return;
+                }
+                stride = process.stride;
+                break;
+            case ADAPTIVE:
+                count = process.readAhead;
+                break;
+        }
+
+        // pages wrap around the process as its words do, except in a trace where the size is unknown
+        int numOfPages = (process.size + PAGE_SIZE - 1) / PAGE_SIZE;
+        for (int i = 1; i <= count && i < numOfPages; i++) {
+            long next = page + (long)i * stride;
+            if (traceFileName == null) {
+                next = Math.floorMod(next, numOfPages);
+            } else if (next < 0 || next > Integer.MAX_VALUE) {
+                break;
+            }
+
+            if (!process.residentSet.contains((int)next)) {
+                if (!canPrefetchWithoutEvicting()) {
+                    break;
+                }
+                long[] entry = {process.pid, (int)next, references + 1, 1, 0, 0, 0};
+                loadPage(entry, references, evictions, residencies);
+                if (disk != null) {
+                    entry[ARRIVAL_INDEX] = disk.prefetch(clock);
+                }
+                process.prefetches++;
+            }
+        }
+    }
+
+    // record the eviction of a frame's page and take it out of its process's resident set
+    private void evict(long[] frame, long references, long[] evictions, long[] residencies) {
+        int index = (int)frame[PID_INDEX] - 1;
+        long loadTime = frame[LOAD_TIME_INDEX];
+        processes[index].residentSet.remove((int)frame[PAGE_INDEX]);
+        processes[index].residentPages--;
+        if (disk != null && frame[DIRTY_INDEX] == 1) {
+            disk.writeBack(clock);
+        }
+        if (frame[PREFETCHED_INDEX] == 1) {
+            processes[index].prefetchWaste++;
+            processes[index].readAhead = Math.max(processes[index].readAhead / 2, 1);
+        }
+        if (tlb != null) {
+            tlb.invalidate((int)frame[PID_INDEX], (int)frame[PAGE_INDEX]);
+        }
+        evictions[index]++;
+        residencies[index] += (references + 1) - loadTime;
+        if (residencyStats) {
+            processes[index].residencyHistogram.record((references + 1) - loadTime);
+        }
+    }
+
+    private void lru(long[] entry, long references, long[] evictions, long[] residencies) {
+        int index = -1;
+        long[] leastRecentFrame = null;
         for (int i = 0; i < frameTable.length; i++) {
-            int[] frame = frameTable[i];
-            if (frame[RECENT_SCORE_INDEX] < leastRecentFrame[RECENT_SCORE_INDEX]) {
+            long[] frame = frameTable[i];
+            if (frame == demandedEntry) {
+                continue;
+            }
+            if (index < 0 || frame[RECENT_SCORE_INDEX] < leastRecentFrame[RECENT_SCORE_INDEX]) {
                 leastRecentFrame = frame;
                 index = i;
             }
         }
 
-        int lrf = leastRecentFrame[PID_INDEX] - 1;
-        int lrfPage = leastRecentFrame[PAGE_INDEX];
-        evictions[lrf]++;
-        residencies[lrf] += (references + 1) - loadTimes[lrf][lrfPage];
+        evict(leastRecentFrame, references, evictions, residencies);
 
         frameTable[index] = entry;
     }
 
-    private void lifo(int[] entry, int references, int[] evictions, int[] residencies, int[][] loadTimes, int lastFrameIndex) {
-        int[] lastFrameIn = frameTable[lastFrameIndex];
-        int lfi = lastFrameIn[PID_INDEX] - 1;
-        int lfiPage = lastFrameIn[PAGE_INDEX];
-        evictions[lfi]++;
-        residencies[lfi] += (references + 1) - loadTimes[lfi][lfiPage];
+    private void lifo(long[] entry, long references, long[] evictions, long[] residencies, int lastFrameIndex) {
+        long[] lastFrameIn = frameTable[lastFrameIndex];
+        evict(lastFrameIn, references, evictions, residencies);
 
         frameTable[lastFrameIndex] = entry;
     }
 
-    private void random(int[] entry, int references, int[] evictions, int[] residencies, int[][] loadTimes) {
-        int randFrameIndex = (int)(randScanner.nextLong() % NUM_OF_FRAMES);
-        int[] randFrame = frameTable[randFrameIndex];
-        int rf = randFrame[PID_INDEX] - 1;
-        int rfPage = randFrame[PAGE_INDEX];
-        evictions[rf]++;
-        residencies[rf] += (references + 1) - loadTimes[rf][rfPage];
+    private void random(long[] entry, long references, long[] evictions, long[] residencies) {
+        int randFrameIndex = (int)(rand.nextLong() % NUM_OF_FRAMES);
+        while (frameTable[randFrameIndex] == demandedEntry) { // draw again rather than evict the demanded page
+            randFrameIndex = (int)(rand.nextLong() % NUM_OF_FRAMES);
+        }
+        long[] randFrame = frameTable[randFrameIndex];
+        evict(randFrame, references, evictions, residencies);
 
         frameTable[randFrameIndex] = entry;
     }
 
-    private void printResults(int [] faults, int[] evictions, int[] residencies) {
-        System.out.println();
-        int totalFaults = 0;
-        int totalEvictions = 0;
-        double totalRes = 0;
-
-        for (int i = 0; i < NUM_OF_PROCESSES; i++) {
-            int faultNum = faults[i];
-            totalFaults += faultNum;
-
-            int evictionNum = evictions[i];
-            totalEvictions += evictionNum;
+    // move a frame to the head of its process's recency list
+    private void touchFrame(int frame) {
+        unlinkFrame(process, frame);
+        linkFrame(process, frame);
+    }
 
-            String aveRes;
-            if (evictionNum != 0) {
-                totalRes += residencies[i];
-                aveRes = "and " + (residencies[i] / (double)evictionNum) + " average residency";
-            } else {
-                aveRes = "and average residency is undefined";
-            }
-            System.out.println("Process " + (i + 1) + " had " + faultNum + " faults " + aveRes);
+    private void linkFrame(Process p, int frame) {
+        frameUseTime[frame] = p.references;
+        newerFrame[frame] = -1;
+        olderFrame[frame] = p.newestFrame;
+        if (p.newestFrame >= 0) {
+            newerFrame[p.newestFrame] = frame;
+        } else {
+            p.oldestFrame = frame;
         }
+        p.newestFrame = frame;
+    }
 
-        String overallAveRes;
-        if (totalEvictions == 0) {
-            overallAveRes = " and the overall average residence is undefined.";
+    private void unlinkFrame(Process p, int frame) {
+        int newer = newerFrame[frame];
+        int older = olderFrame[frame];
+        if (newer >= 0) {
+            olderFrame[newer] = older;
         } else {
-            overallAveRes = " and the overall average residency is " + (totalRes / totalEvictions);
+            p.newestFrame = older;
+        }
+        if (older >= 0) {
+            newerFrame[older] = newer;
+        } else {
+            p.oldestFrame = newer;
         }
+    }
 
-        System.out.println("\nThe total number of faults is " + totalFaults + overallAveRes + "\n");
+    // evict the least recently used page of a process and return its frame
+    private int evictOldest(Process p, long references, long[] evictions, long[] residencies) {
+        int frame = p.oldestFrame;
+        evict(frameTable[frame], references, evictions, residencies);
+        unlinkFrame(p, frame);
+        return frame;
     }
 
-    private String makeStringForParam(String description, Object param) {
-        return description + " " + param + ".\n";
+    // evict the least recently used page of a process and put its frame on the free stack
+    private void freeOldest(Process p, long references, long[] evictions, long[] residencies) {
+        int frame = evictOldest(p, references, evictions, residencies);
+        frameTable[frame] = new long[FRAME_FIELDS];
+        freeFrames[numOfFreeFrames++] = frame;
     }
 
-    void echoParams() {
-        StringBuilder message = new StringBuilder();
-        message.append("\n");
-        message.append(makeStringForParam("The machine size is", MACHINE_SIZE));
-        message.append(makeStringForParam("The page size is", PAGE_SIZE));
-        message.append(makeStringForParam("The process size is", PROCESS_SIZE));
-        message.append(makeStringForParam("The job mix number is", JOB_MIX));
-        message.append(makeStringForParam("The number of references per process is", NUM_OF_REFERENCES));
+    private Process largestResidentSet() {
+        Process largest = processes[0];
+        for (Process p : processes) {
+            if (p.residentPages > largest.residentPages) {
+                largest = p;
+            }
+        }
+        return largest;
+    }
+
+    // page fault frequency: grow the quota of a process that faults often and shrink that of one that rarely does
+    private void adjustQuota(long references, long[] evictions, long[] residencies) {
+        long interval = process.references - process.lastFaultTime;
+        process.lastFaultTime = process.references;
+
+        if (interval < faultIntervals[0]) {
+            process.quota = Math.min(process.quota + 1, NUM_OF_FRAMES);
+        } else if (interval > faultIntervals[1]) {
+            process.quota = Math.max(process.quota - 1, 1);
+            while (process.residentPages > process.quota) {
+                freeOldest(process, references, evictions, residencies);
+            }
+        }
+    }
+
+    // place a faulting page in a free frame, or replace the least recently used page of the faulting process;
+    // a process with no pages of its own takes a frame from the process with the largest resident set
+    private void localReplace(long[] entry, long references, long[] evictions, long[] residencies) {
+        boolean atQuota = false;
+        if (REPLACEMENT_ALGORITHM.equals(FAULT_FREQUENCY)) {
+            if (entry[PREFETCHED_INDEX] == 0) { // prefetches are not faults
+                adjustQuota(references, evictions, residencies);
+            }
+            atQuota = process.residentPages >= process.quota;
+        }
+
+        int frame;
+        if (!atQuota && numOfFreeFrames > 0) {
+            frame = freeFrames[--numOfFreeFrames];
+        } else if (process.residentPages > 0) {
+            frame = evictOldest(process, references, evictions, residencies);
+        } else {
+            frame = evictOldest(largestResidentSet(), references, evictions, residencies);
+        }
+
+        frameTable[frame] = entry;
+        linkFrame(process, frame);
+    }
+
+    // working set: free the pages of the running process that it has not used in its last window references
+    private void trimWorkingSet(long references, long[] evictions, long[] residencies) {
+        while (process.oldestFrame >= 0 && frameUseTime[process.oldestFrame] <= process.references - window) {
+            freeOldest(process, references, evictions, residencies);
+        }
+    }
+
+    private void sampleResidentSets(long references) {
+        if (rssLogFileName != null && rssLog == null) {
+            try {
+                rssLog = new PrintWriter(rssLogFileName);
+                rssLog.println("reference,process,resident pages");
+            } catch(FileNotFoundException ex) {
+                System.out.println("Failed to create file '" + rssLogFileName + "'");
+                System.exit(0);
+            }
+        }
+
+        for (Process p : processes) {
+            p.residentPagesSum += p.residentPages;
+            p.residentPagesSamples++;
+            p.maxResidentPages = Math.max(p.maxResidentPages, p.residentPages);
+            if (rssLog != null) {
+                rssLog.println(references + "," + p.pid + "," + p.residentPages);
+            }
+        }
+    }
+
+    void printResults() {
+        System.out.println();
+        long totalFaults = 0;
+        long totalEvictions = 0;
+        double totalRes = 0;
+
+        for (int i = 0; i < NUM_OF_PROCESSES; i++) {
+            long faultNum = faults[i];
+            totalFaults += faultNum;
+
+            long evictionNum = evictions[i];
+            totalEvictions += evictionNum;
+
+            String aveRes;
+            if (evictionNum != 0) {
+                totalRes += residencies[i];
+                aveRes = "and " + (residencies[i] / (double)evictionNum) + " average residency";
+            } else {
+                aveRes = "and average residency is undefined";
+            }
+            System.out.println("Process " + (i + 1) + " had " + faultNum + " faults " + aveRes);
+        }
+
+        String overallAveRes;
+        if (totalEvictions == 0) {
+            overallAveRes = " and the overall average residence is undefined.";
+        } else {
+            overallAveRes = " and the overall average residency is " + (totalRes / totalEvictions);
+        }
+
+        System.out.println("\nThe total number of faults is " + totalFaults + overallAveRes + "\n");
+
+        if (residencyStats) {
+            for (Process p : processes) {
+                LogHistogram h = p.residencyHistogram;
+                if (h.count() == 0) {
+                    System.out.println("Process " + p.pid + "'s residency percentiles are undefined");
+                } else {
+                    System.out.println("Process " + p.pid + "'s residency has median " + h.percentile(50) + ", p99 " + h.percentile(99) + " and max " + h.max());
+                }
+            }
+            System.out.println();
+        }
+
+        if (prefetchPolicy != null) {
+            long totalPrefetches = 0;
+            long totalHits = 0;
+            long totalWaste = 0;
+            for (Process p : processes) {
+                totalPrefetches += p.prefetches;
+                totalHits += p.prefetchHits;
+                totalWaste += p.prefetchWaste;
+                System.out.println("Process " + p.pid + " prefetched " + p.prefetches + " pages; " + p.prefetchHits + " were referenced and " + p.prefetchWaste + " were evicted unreferenced");
+            }
+            System.out.println("\nPrefetching loaded " + totalPrefetches + " pages and avoided " + totalHits + " faults; " + totalWaste + " prefetched pages were wasted.\n");
+        }
+
+        if (local) {
+            for (Process p : processes) {
+                double aveResident = p.residentPagesSamples == 0 ? 0 : p.residentPagesSum / (double)p.residentPagesSamples;
+                System.out.println("Process " + p.pid + "'s resident set averaged " + aveResident + " pages and peaked at " + p.maxResidentPages);
+            }
+            System.out.println();
+        }
+
+        if (disk != null) {
+            long endTime = clock;
+            for (Process p : processes) {
+                endTime = Math.max(endTime, p.readyTime);
+            }
+            disk.printResults(totalReferences, endTime);
+        }
+
+        if (tlb != null) {
+            tlb.printResults(totalReferences, totalFaults, accessTimes[0], accessTimes[1], accessTimes[2]);
+        }
+    }
+
+    private String makeStringForParam(String description, Object param) {
+        return description + " " + param + ".\n";
+    }
+
+    void echoParams() {
+        StringBuilder message = new StringBuilder();
+        message.append("\n");
+        message.append(makeStringForParam("The machine size is", MACHINE_SIZE));
+        message.append(makeStringForParam("The page size is", PAGE_SIZE));
+        message.append(makeStringForParam("The process size is", PROCESS_SIZE));
+        message.append(makeStringForParam(JOB_MIX.matches("\\d+") ? "The job mix number is" : "The job mix file is", JOB_MIX));
+        message.append(makeStringForParam("The number of references per process is", NUM_OF_REFERENCES));
         message.append(makeStringForParam("The replacement algorithm is", REPLACEMENT_ALGORITHM));
+        if (disk != null) {
+            message.append(makeStringForParam("The paging disk (service ns, depth, writeback batch, transfer ns) is", Arrays.toString(diskParams)));
+            message.append(makeStringForParam("The fraction of references that write is", writeFraction));
+        }
+        if (prefetchPolicy != null) {
+            message.append(makeStringForParam("The prefetch policy is", prefetchPolicy + " with depth " + prefetchDepth));
+        }
+        if (REPLACEMENT_ALGORITHM.equals(WORKING_SET)) {
+            message.append(makeStringForParam("The working set window is", window));
+        } else if (REPLACEMENT_ALGORITHM.equals(FAULT_FREQUENCY)) {
+            message.append(makeStringForParam("The fault intervals that grow and shrink a quota are", faultIntervals[0] + " and " + faultIntervals[1]));
+        }
+        if (tlb != null) {
+            message.append(makeStringForParam("The TLB is", tlbEntries + " entries in " + (tlbEntries / tlbWays) + " sets of " + tlbWays + " ways"));
+            message.append(makeStringForParam("The page table levels index", Arrays.toString(levelBits) + " bits of the page number"));
+        }
+        if (traceFileName != null) {
+            String order = interleave ? " (replayed in quantum order)" : " (replayed in file order)";
+            message.append(makeStringForParam("The trace file is", traceFileName + order));
+        }
 
         System.out.println(message);
     }
 }
+
+// Reads a memory-access trace of 12 byte big-endian (int pid, long virtual address) records. The file is
+// read through memory mapped windows, so a trace of any length streams through without being loaded onto
+// the heap.
+class TraceReader {
+
+    static final int RECORD_SIZE = 12;
+    private static final long WINDOW_SIZE = RECORD_SIZE * (1L << 24);
+
+    private final FileChannel channel;
+    private final long length;
+
+    private MappedByteBuffer window;
+    private long position; // the offset of the next record
+
+    private int pid;
+    private long address;
+
+    TraceReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+
+        long size = channel.size();
+        length = size - (size % RECORD_SIZE); // ignore a torn last record
+    }
+
+    int pid() { return pid; }
+
+    long address() { return address; }
+
+    // the index of the next record
+    long record() { return position / RECORD_SIZE; }
+
+    // move back or ahead so that the next record read is the given one
+    void seek(long record) {
+        position = record * RECORD_SIZE;
+        window = null;
+    }
+
+    // move to the next record; return false at the end of the trace
+    boolean next() {
+        if (window == null || !window.hasRemaining()) {
+            if (position >= length) {
+                return false;
+            }
+            mapWindow(position);
+        }
+
+        pid = window.getInt();
+        address = window.getLong();
+        position += RECORD_SIZE;
+        return true;
+    }
+
+    private void mapWindow(long start) {
+        try {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, length - start));
+        } catch(IOException ex) {
+            System.out.println("Failed to read the trace file");
+            System.exit(0);
+        }
+    }
+}
+
+// Splits one pass of a TraceReader over a trace into a queue of addresses per process, so that processes
+// replayed in quantum order each follow their own records while the file is mostly read once. A process
+// whose queue is empty reads ahead to its next record, queueing the records of the other processes it passes
+// over. Queues hold at most QUEUE_CAPACITY records: a process whose queue is full falls behind, and once it
+// has used up its queue it reads its own records again from where it fell behind up to the shared position,
+// through a reader of its own, so memory stays bounded however the processes' records are spread through
+// the trace. A process takes at most a given number of records; records beyond it, and those of pids
+// outside the job mix, are passed over.
+class TraceDemux {
+
+    private static final int QUEUE_CAPACITY = 1 << 12; // a power of two
+
+    private final FileChannel channel;
+    private final TraceReader reader;
+    private final Cursor[] cursors; // by pid - 1
+    private final long limit;
+
+    TraceDemux(FileChannel channel, int numOfProcesses, long limit) throws IOException {
+        this.channel = channel;
+        this.limit = limit;
+        reader = new TraceReader(channel);
+        cursors = new Cursor[numOfProcesses];
+        for (int i = 0; i < numOfProcesses; i++) {
+            cursors[i] = new Cursor(i + 1);
+        }
+    }
+
+    Cursor cursor(int pid) { return cursors[pid - 1]; }
+
+    // read ahead to the next record of a process, queueing those of the others on the way;
+    // return false at the end of the trace
+    private boolean readAheadTo(Cursor wanted) {
+        while (reader.next()) {
+            int pid = reader.pid();
+            if (pid < 1 || pid > cursors.length) {
+                continue;
+            }
+
+            Cursor cursor = cursors[pid - 1];
+            if (cursor == wanted) {
+                wanted.address = reader.address();
+                wanted.taken++;
+                return true;
+            }
+            cursor.enqueue(reader.address(), reader.record() - 1);
+        }
+        return false;
+    }
+
+    // one process's records: those queued by the others, then those it fell behind on, then the rest of the trace
+    class Cursor {
+        private final int pid;
+
+        private final long[] queue = new long[QUEUE_CAPACITY]; // a ring
+        private int head;
+        private int size;
+        private long taken; // records queued or read so far
+
+        // while behind, the shared reader passes over this process's records, which it reads again itself
+        private boolean behind;
+        private long behindFrom; // the record it fell behind at, until its own reader has moved there
+        private TraceReader own;
+
+        private long address;
+
+        Cursor(int pid) {
+            this.pid = pid;
+        }
+
+        // move to the process's next record; return false when it has none left
+        boolean next() {
+            if (size > 0) {
+                address = queue[head];
+                head = (head + 1) & (queue.length - 1);
+                size--;
+                return true;
+            }
+            if (taken >= limit) {
+                return false;
+            }
+            if (behind && catchUp()) {
+                return true;
+            }
+            return readAheadTo(this);
+        }
+
+        long address() { return address; }
+
+        // read this process's next record among those the shared reader has passed over;
+        // return false, no longer behind, when there is none before the shared position
+        private boolean catchUp() {
+            if (behindFrom >= 0) {
+                if (own == null) {
+                    try {
+                        own = new TraceReader(channel);
+                    } catch(IOException ex) {
+                        System.out.println("Failed to read the trace file");
+                        System.exit(0);
+                    }
+                }
+                own.seek(behindFrom);
+                behindFrom = -1;
+            }
+            while (own.record() < reader.record() && own.next()) {
+                if (own.pid() == pid) {
+                    address = own.address();
+                    taken++;
+                    return true;
+                }
+            }
+            behind = false;
+            return false;
+        }
+
+        private void enqueue(long address, long record) {
+            if (behind || taken >= limit) {
+                return;
+            }
+            if (size == queue.length) {
+                behind = true;
+                behindFrom = record;
+                return;
+            }
+            queue[(head + size) & (queue.length - 1)] = address;
+            size++;
+            taken++;
+        }
+    }
+}
+
+// Runs every combination of ranges of machine size, page size, process size, job mix, references and
+// replacement algorithm as an independent Driver on a fork-join pool and prints one table of the results.
+// Each parameter is given as NAME=values where values is a comma separated list of values or
+// integer ranges lo:hi or lo:hi:step, e.g. "M=1000:4000:1000 P=10,20,40 R=lru,lifo,random".
+class Sweep {
+
+    private static final String[] PARAM_NAMES = {"M", "P", "S", "J", "N", "R"};
+    private static final String[] DEFAULTS = {"20", "10", "10", "4", "10", "lru"};
+
+    private final List<String[]> configs = new ArrayList<>();
+    private Driver[] drivers;
+    private long[] randomNumbers;
+
+    Sweep(String[] args) {
+        List<List<String>> values = new ArrayList<>();
+        for (int i = 0; i < PARAM_NAMES.length; i++) {
+            values.add(expand(DEFAULTS[i]));
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            String[] nameAndValues = args[i].split("=", 2);
+            int param = List.of(PARAM_NAMES).indexOf(nameAndValues[0]);
+            if (param < 0 || nameAndValues.length < 2) {
+                System.out.println("Unknown sweep parameter '" + args[i] + "'");
+                System.exit(0);
+            }
+            values.set(param, expand(nameAndValues[1]));
+        }
+
+        addConfigs(values, new String[PARAM_NAMES.length], 0);
+    }
+
+    // expand a comma separated list of values and integer ranges
+    private static List<String> expand(String spec) {
+        List<String> values = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] range = part.split(":");
+            if (range.length == 1) {
+                values.add(part);
+            } else {
+                int lo = Integer.parseInt(range[0]);
+                int hi = Integer.parseInt(range[1]);
+                int step = range.length > 2 ? Integer.parseInt(range[2]) : 1;
+                for (int v = lo; v <= hi; v += step) {
+                    values.add(String.valueOf(v));
+                }
+            }
+        }
+        return values;
+    }
+
+    private void addConfigs(List<List<String>> values, String[] config, int param) {
+        if (param == config.length) {
+            int machineSize = Integer.parseInt(config[0]);
+            int pageSize = Integer.parseInt(config[1]);
+            if (machineSize / pageSize > 0) { // skip machines without a single frame
+                configs.add(config.clone());
+            }
+            return;
+        }
+        for (String value : values.get(param)) {
+            config[param] = value;
+            addConfigs(values, config, param + 1);
+        }
+    }
+
+    // simulate the configurations in [from, to), splitting the range until each task holds one configuration
+    private class SimulateRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        SimulateRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                Driver driver = new Driver(configs.get(from), new RandomCursor(randomNumbers));
+                driver.simulate();
+                drivers[from] = driver;
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SimulateRange(from, mid), new SimulateRange(mid, to));
+            }
+        }
+    }
+
+    void run() {
+        randomNumbers = RandomCursor.load("random-numbers"); // magic file name
+        drivers = new Driver[configs.size()];
+
+        if (!configs.isEmpty()) {
+            new ForkJoinPool().invoke(new SimulateRange(0, configs.size()));
+        }
+
+        printTable();
+    }
+
+    private void printTable() {
+        String format = "%8s %6s %6s %6s %8s %7s %8s %8s %18s%n";
+        System.out.printf(format, "M", "P", "S", "J", "N", "R", "process", "faults", "average residency");
+
+        for (int i = 0; i < drivers.length; i++) {
+            String[] c = configs.get(i);
+            Driver driver = drivers[i];
+            for (int p = 0; p < driver.getNumOfProcesses(); p++) {
+                double aveRes = driver.getAverageResidency(p);
+                String res = Double.isNaN(aveRes) ? "undefined" : String.format("%.3f", aveRes);
+                System.out.printf(format, c[0], c[1], c[2], c[3], c[4], c[5], p + 1, driver.getFaults(p), res);
+            }
+        }
+    }
+}
+
+// Cost model of a set-associative TLB in front of a multi-level (radix) page table. A translation that
+// misses the TLB walks the page table from the root, one memory reference per level, except that the
+// upper levels each have a small page walk cache so a walk can start below the root. Tags, LRU stamps and
+// the walk caches are kept in flat primitive arrays indexed by bit masks, so sets must be a power of two.
+class TlbModel {
+
+    private static final long EMPTY = 0; // pids start at 1 so no tag is ever 0
+    private static final int WALK_CACHE_ENTRIES = 16;
+
+    private final int sets;
+    private final int ways;
+    private final long[] tags;
+    private final long[] lastUse;
+    private long clock;
+
+    // bits of the page number below each level, and one direct mapped walk cache per upper level
+    private final int[] shifts;
+    private final long[][] walkCaches;
+
+    private long hits;
+    private long misses;
+    private long walks;
+    private long walkReferences;
+
+    TlbModel(int entries, int ways, int[] levelBits) {
+        if (ways < 1 || entries % ways != 0 || Integer.bitCount(entries / ways) != 1) {
+            System.out.println("The TLB must have a power of two number of sets (entries / ways)");
+            System.exit(0);
+        }
+
+        this.sets = entries / ways;
+        this.ways = ways;
+        tags = new long[entries];
+        lastUse = new long[entries];
+
+        shifts = new int[levelBits.length];
+        int below = 0;
+        for (int level = levelBits.length - 1; level >= 0; level--) {
+            shifts[level] = below;
+            below += levelBits[level];
+        }
+        walkCaches = new long[levelBits.length - 1][WALK_CACHE_ENTRIES];
+    }
+
+    private static long tag(int pid, int page) {
+        return ((long)pid << 32) | (page & 0xFFFFFFFFL);
+    }
+
+    private int setOf(long tag) {
+        long mixed = tag * 0x9E3779B97F4A7C15L;
+        return (int)(mixed >>> 40) & (sets - 1);
+    }
+
+    // translate a page for a process, walking the page table on a miss
+    void translate(int pid, int page) {
+        long tag = tag(pid, page);
+        int base = setOf(tag) * ways;
+        clock++;
+
+        int victim = base;
+        for (int i = base; i < base + ways; i++) {
+            if (tags[i] == tag) {
+                hits++;
+                lastUse[i] = clock;
+                return;
+            }
+            if (lastUse[i] < lastUse[victim]) {
+                victim = i;
+            }
+        }
+
+        misses++;
+        walk(pid, page);
+
+        tags[victim] = tag;
+        lastUse[victim] = clock;
+    }
+
+    // walk from the deepest upper level found in its walk cache down to the leaf
+    private void walk(int pid, int page) {
+        walks++;
+
+        int start = 0;
+        for (int level = walkCaches.length - 1; level >= 0; level--) {
+            long prefix = tag(pid, page >>> shifts[level]);
+            long[] cache = walkCaches[level];
+            int slot = (int)((prefix * 0x9E3779B97F4A7C15L) >>> 60) & (WALK_CACHE_ENTRIES - 1);
+            if (cache[slot] == prefix) {
+                start = level + 1;
+                break;
+            }
+        }
+
+        for (int level = start; level < shifts.length; level++) {
+            walkReferences++;
+            if (level < walkCaches.length) {
+                long prefix = tag(pid, page >>> shifts[level]);
+                int slot = (int)((prefix * 0x9E3779B97F4A7C15L) >>> 60) & (WALK_CACHE_ENTRIES - 1);
+                walkCaches[level][slot] = prefix;
+            }
+        }
+    }
+
+    // drop the translation of a page that was evicted from memory
+    void invalidate(int pid, int page) {
+        long tag = tag(pid, page);
+        int base = setOf(tag) * ways;
+        for (int i = base; i < base + ways; i++) {
+            if (tags[i] == tag) {
+                tags[i] = EMPTY;
+                lastUse[i] = 0;
+                return;
+            }
+        }
+    }
+
+    void printResults(long references, long faults, long tlbTime, long memoryTime, long faultTime) {
+        double hitRate = references == 0 ? 0 : hits / (double)references;
+        double walkRefsPerReference = references == 0 ? 0 : walkReferences / (double)references;
+        double faultRate = references == 0 ? 0 : faults / (double)references;
+        double effectiveAccessTime = tlbTime + walkRefsPerReference * memoryTime + memoryTime + faultRate * faultTime;
+
+        System.out.println("The TLB hit rate is " + hitRate + " (" + hits + " hits and " + misses + " misses).");
+        System.out.println("There were " + walks + " page table walks making " + walkReferences + " memory references.");
+        System.out.println("The estimated effective access time is " + effectiveAccessTime + " ns.\n");
+    }
+}
+
+// A paging disk that serves up to depth requests at once, each starting when a slot frees up in arrival
+// order. Reads take the service time. Writebacks of dirty pages are gathered into batches, and a batch
+// takes one service time plus a transfer time for each page after the first; a partial batch is written
+// when the run ends. Nobody waits for a writeback, and a process waits for a prefetched page only when it
+// references the page before it arrives, but both keep the disk busy.
+class DiskModel {
+
+    private final long serviceTime;
+    private final long transferTime;
+    private final int batch;
+
+    // the time at which each slot finishes its current request
+    private final long[] busyUntil;
+
+    private int pendingWritebacks;
+    private long writebacks;
+    private long writebackBatches;
+    private long reads;
+
+    private final LogHistogram latencies = new LogHistogram();
+
+    DiskModel(long serviceTime, int depth, int batch, long transferTime) {
+        this.serviceTime = serviceTime;
+        this.transferTime = transferTime;
+        this.batch = Math.max(batch, 1);
+        busyUntil = new long[Math.max(depth, 1)];
+    }
+
+    private long submit(long now, long cost) {
+        int slot = 0;
+        for (int i = 1; i < busyUntil.length; i++) {
+            if (busyUntil[i] < busyUntil[slot]) {
+                slot = i;
+            }
+        }
+        busyUntil[slot] = Math.max(now, busyUntil[slot]) + cost;
+        return busyUntil[slot];
+    }
+
+    // read a faulting page and return the time it arrives
+    long read(long now) {
+        reads++;
+        long arrival = submit(now, serviceTime);
+        latencies.record(arrival - now);
+        return arrival;
+    }
+
+    // read a prefetched page and return the time it arrives
+    long prefetch(long now) {
+        reads++;
+        return submit(now, serviceTime);
+    }
+
+    void writeBack(long now) {
+        writebacks++;
+        pendingWritebacks++;
+        if (pendingWritebacks == batch) {
+            flush(now);
+        }
+    }
+
+    // write the gathered writebacks as one batch
+    void flush(long now) {
+        if (pendingWritebacks > 0) {
+            submit(now, serviceTime + (pendingWritebacks - 1) * transferTime);
+            pendingWritebacks = 0;
+            writebackBatches++;
+        }
+    }
+
+    void printResults(long references, long endTime) {
+        double seconds = endTime / 1e9;
+        double throughput = seconds == 0 ? 0 : references / seconds;
+        System.out.println("The simulated time is " + seconds + " s, a throughput of " + throughput + " references per second.");
+        System.out.println("The disk made " + reads + " reads and wrote back " + writebacks + " dirty pages in " + writebackBatches + " batches.");
+        System.out.println("Fault latency (ns): mean " + latencies.mean() + ", p50 " + latencies.percentile(50) + ", p90 " + latencies.percentile(90)
+                + ", p99 " + latencies.percentile(99) + ", max " + latencies.max() + ".\n");
+    }
+}
+
+// A set of non-negative page numbers in an open-addressed table with linear probing, so residency tests and
+// updates in the simulation loop do not box. The table doubles when half full, and a removal shifts the
+// entries after it back instead of leaving a marker.
+class PageSet {
+
+    private static final int EMPTY = -1;
+
+    private int[] slots = newSlots(16);
+    private int size;
+
+    private static int[] newSlots(int capacity) {
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+
+    private int home(int page) {
+        int h = page * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (slots.length - 1);
+    }
+
+    // the slot holding a page, or the empty slot where it would go
+    private int slotOf(int page) {
+        int slot = home(page);
+        while (slots[slot] != EMPTY && slots[slot] != page) {
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        return slot;
+    }
+
+    boolean contains(int page) {
+        return slots[slotOf(page)] == page;
+    }
+
+    void add(int page) {
+        int slot = slotOf(page);
+        if (slots[slot] == page) {
+            return;
+        }
+        slots[slot] = page;
+        size++;
+        if (2 * size > slots.length) {
+            int[] old = slots;
+            slots = newSlots(2 * old.length);
+            for (int p : old) {
+                if (p != EMPTY) {
+                    slots[slotOf(p)] = p;
+                }
+            }
+        }
+    }
+
+    void remove(int page) {
+        int hole = slotOf(page);
+        if (slots[hole] != page) {
+            return;
+        }
+        size--;
+
+        // move back each following entry that the hole cuts off from its home slot
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & (slots.length - 1);
+            if (slots[slot] == EMPTY) {
+                break;
+            }
+            int home = home(slots[slot]);
+            boolean between = hole <= slot ? (hole < home && home <= slot) : (hole < home || home <= slot);
+            if (!between) {
+                slots[hole] = slots[slot];
+                hole = slot;
+            }
+        }
+        slots[hole] = EMPTY;
+    }
+}
+
+// A histogram of non-negative values in logarithmic buckets, 16 to each power of two, so percentiles are
+// within about 6% in constant memory however many values are recorded. The count, sum and max are exact.
+class LogHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long count;
+    private double sum;
+    private long max;
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // the smallest value that falls in a bucket
+    private static long lowestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+
+    void record(long value) {
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    long count() { return count; }
+
+    long max() { return max; }
+
+    double mean() { return count == 0 ? 0 : sum / count; }
+
+    // the value at a percentile, estimated from the lowest value of the bucket it falls in
+    long percentile(double percent) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(percent / 100 * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(lowestValueOf(bucket), max);
+            }
+        }
+        return max;
+    }
+}
+
+// Benchmarks the hot loop of Driver.simulate: hit detection and the lru, lifo and random
+// replacement paths, across frame counts and every job mix, and prints ns per reference and allocation.
+class PagingBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+
+    // the benchmarked paths: a page table that holds every page, and the three replacement algorithms
+    private static final String HIT = "hit";
+    private static final String[] SCENARIOS = {HIT, "lru", "lifo", "random"};
+
+    // the total frames scanned per measured run, which bounds the references of the larger tables
+    private static final long FRAME_STEPS_PER_RUN = 40_000_000L;
+
+    private static int warmupIterations = 3;
+    private static int measurementIterations = 5;
+    private static int[] frameCounts = {10, 100, 1_000, 10_000, 100_000, 1_000_000};
+    private static int[] jobMixes = {1, 2, 3, 4};
+    private static String[] scenarios = SCENARIOS;
+
+    // keeps the results alive so the simulations cannot be optimized away
+    private static long sink;
+
+    // run the benchmarks, optionally narrowed by arguments such as
+    // frames=10,1000 mix=4 scenario=lru,hit warmup=2 iterations=10
+    public static void main(String[] args) throws IOException {
+        for (String arg : args) {
+            String[] nameAndValue = arg.split("=", 2);
+            switch (nameAndValue[0]) {
+                case "frames":
+                    frameCounts = parseInts(nameAndValue[1]);
+                    break;
+                case "mix":
+                    jobMixes = parseInts(nameAndValue[1]);
+                    break;
+                case "scenario":
+                    scenarios = nameAndValue[1].split(",");
+                    break;
+                case "warmup":
+                    warmupIterations = Integer.parseInt(nameAndValue[1]);
+                    break;
+                case "iterations":
+                    measurementIterations = Integer.parseInt(nameAndValue[1]);
+                    break;
+                default:
+                    System.out.println("Unknown argument '" + arg + "'");
+                    return;
+            }
+        }
+
+        String format = "%-8s %4s %9s %9s %9s %12s %9s %11s%n";
+        System.out.printf(format, "scenario", "mix", "frames", "refs/op", "faults/op", "ns/ref", "error", "bytes/ref");
+
+        for (String scenario : scenarios) {
+            for (int jobMix : jobMixes) {
+                for (int frames : frameCounts) {
+                    Result r = benchmark(scenario, jobMix, frames);
+                    System.out.printf(format, scenario, jobMix, frames, r.references, r.faults,
+                            String.format("%.2f", r.nsPerReference), String.format("+-%.2f", r.error),
+                            String.format("%.2f", r.bytesPerReference));
+                }
+            }
+        }
+
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static int[] parseInts(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private static class Result {
+        long references;
+        long faults;
+        double nsPerReference;
+        double error;
+        double bytesPerReference;
+    }
+
+    private static Result benchmark(String scenario, int jobMix, int frames) throws IOException {
+        double[][] mix = Driver.JOB_MIXES[jobMix - 1];
+        int numOfProcesses = mix.length;
+
+        long references = Math.max(200, Math.min(400_000, FRAME_STEPS_PER_RUN / frames));
+        long referencesPerProcess = Math.max(1, references / numOfProcesses);
+
+        // a hit run touches few enough pages that they all fit and almost every reference hits;
+        // a replacement run spreads over four times as many pages as there are frames
+        int processSize;
+        if (scenario.equals(HIT)) {
+            long pages = Math.max(1, Math.min(frames / 2, references / 20));
+            processSize = (int)Math.max(PAGE_SIZE, pages / numOfProcesses * PAGE_SIZE);
+        } else {
+            processSize = (int)Math.min(Integer.MAX_VALUE, 4L * frames * PAGE_SIZE / numOfProcesses);
+        }
+
+        File trace = writeReferenceStream(mix, processSize, referencesPerProcess);
+        long[] randomNumbers = new SplittableRandom(7).ints(3 * references + 16, 0, Integer.MAX_VALUE)
+                .asLongStream().toArray();
+
+        String algorithm = scenario.equals(HIT) ? "lru" : scenario;
+        String[] params = {
+                String.valueOf((long)frames * PAGE_SIZE), String.valueOf(PAGE_SIZE), String.valueOf(processSize),
+                String.valueOf(jobMix), String.valueOf(referencesPerProcess), algorithm,
+                "--trace", trace.getPath()
+        };
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        List<Double> nsPerReference = new ArrayList<>();
+        double bytesPerReference = 0;
+        long faults = 0;
+
+        for (int i = 0; i < warmupIterations + measurementIterations; i++) {
+            // construction, including the frame table, is not measured
+            Driver driver = new Driver(params, new RandomCursor(randomNumbers));
+
+            long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            driver.simulate();
+            long elapsed = System.nanoTime() - start;
+            long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+            faults = 0;
+            for (int p = 0; p < driver.getNumOfProcesses(); p++) {
+                faults += driver.getFaults(p);
+            }
+            sink += faults;
+
+            if (i >= warmupIterations) {
+                nsPerReference.add(elapsed / (double)(referencesPerProcess * numOfProcesses));
+                bytesPerReference += bytes / (double)(referencesPerProcess * numOfProcesses) / measurementIterations;
+            }
+        }
+
+        trace.delete();
+
+        Result result = new Result();
+        result.references = referencesPerProcess * numOfProcesses;
+        result.faults = faults;
+        result.nsPerReference = nsPerReference.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        double variance = nsPerReference.stream().mapToDouble(v -> (v - result.nsPerReference) * (v - result.nsPerReference)).sum()
+                / Math.max(1, nsPerReference.size() - 1);
+        result.error = Math.sqrt(variance);
+        result.bytesPerReference = bytesPerReference;
+        return result;
+    }
+
+    // pregenerate the references of a job mix with the locality model, in the order Driver runs the
+    // processes, as a trace file so that no random numbers are parsed or drawn while measuring
+    private static File writeReferenceStream(double[][] mix, int processSize, long referencesPerProcess) throws IOException {
+        final int QUANTUM = 3;
+        SplittableRandom random = new SplittableRandom(42);
+
+        int[] words = new int[mix.length];
+        for (int p = 0; p < mix.length; p++) {
+            words[p] = (111 * (p + 1)) % processSize;
+        }
+
+        File trace = File.createTempFile("paging-benchmark", ".trace");
+        trace.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(trace), 1 << 16))) {
+            for (long made = 0; made < referencesPerProcess; made += QUANTUM) {
+                for (int p = 0; p < mix.length; p++) {
+                    for (long q = made; q < Math.min(made + QUANTUM, referencesPerProcess); q++) {
+                        out.writeInt(p + 1);
+                        out.writeLong(words[p]);
+                        words[p] = nextWord(mix[p], words[p], processSize, random);
+                    }
+                }
+            }
+        }
+        return trace;
+    }
+
+    private static int nextWord(double[] abc, int word, int size, SplittableRandom random) {
+        double y = random.nextDouble();
+        if (y < abc[0]) {
+            return (word + 1) % size;
+        } else if (y < abc[0] + abc[1]) {
+            return (word - 5 + size) % size;
+        } else if (y < abc[0] + abc[1] + abc[2]) {
+            return (word + 4) % size;
+        } else {
+            return random.nextInt(size);
+        }
+    }
+}